@@ -0,0 +1,205 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+
+
+// Approximate model counter in the style of ApproxMC (Chakraborty, Meel, Vardi)
+// The solutions are split into cells by m random XOR constraints, and we look for the smallest m such that a cell holds
+// fewer than thresh solutions: the number of solutions is then about (size of the cell) * 2^m
+// The XORs are taken over the bits of the index of each vertex in the path rather than over the n^2 variables x_i,v:
+// these n*log2(n) bits also determine the path, and they give much shorter XORs
+// With probability at least 1 - delta, the returned estimate is within a factor (1 + epsilon) of the exact count
+public class ApproximateCounter {
+
+	private double epsilon;
+	private double delta;
+	private Random random;
+
+	ApproximateCounter(double epsilon, double delta) {
+		this(epsilon, delta, new Random());
+	}
+
+	ApproximateCounter(double epsilon, double delta, Random random) {
+		this.epsilon = epsilon;
+		this.delta = delta;
+		this.random = random;
+	}
+
+	// The size under which a cell is considered small enough to be counted exactly
+	public int threshold() {
+		return (int) Math.ceil(1 + 9.84 * (1 + epsilon/(1 + epsilon)) * (1 + 1/epsilon) * (1 + 1/epsilon));
+	}
+
+	// The number of independent estimates whose median is returned
+	public int iterations() {
+		return (int) Math.ceil(17 * Math.log(3/delta) / Math.log(2));
+	}
+
+	// Returns an estimate of log2(number of solutions) of the Rikudo, or -infinity if it has none
+	public double log2Count(Rikudo riku) {
+
+		int n = riku.graph.vertexNumber();
+		int support = n * bitNumber(n);
+		int thresh = threshold();
+
+		// Small instances are counted exactly
+		long count = countCell(riku, new int[0][], 0, thresh);
+		if (count < thresh) {
+			return (count == 0) ? Double.NEGATIVE_INFINITY : Math.log(count) / Math.log(2);
+		}
+
+		int t = iterations();
+		ArrayList<Double> estimates = new ArrayList<Double>();
+		int previous = 1;
+
+		for (int k = 0; k < t; k ++) {
+
+			int[][] hashes = randomXors(support, support);
+
+			// The cells only get smaller when m grows, so we can look for the smallest good m by galloping then dichotomy,
+			// starting from the m of the previous iteration since it is usually close
+			int lo = 0;
+			int hi = Math.max(previous, 1);
+			while (hi < support && countCell(riku, hashes, hi, thresh) >= thresh) {
+				lo = hi;
+				hi = Math.min(2*hi, support);
+			}
+			while (hi - lo > 1) {
+				int mid = (lo + hi) / 2;
+				if (countCell(riku, hashes, mid, thresh) >= thresh) {
+					lo = mid;
+				} else {
+					hi = mid;
+				}
+			}
+
+			long cell = countCell(riku, hashes, hi, thresh);
+			previous = hi;
+			if (cell > 0 && cell < thresh) {
+				estimates.add(Math.log(cell) / Math.log(2) + hi);
+			}
+		}
+
+		if (estimates.isEmpty()) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		double[] e = new double[estimates.size()];
+		for (int i = 0; i < e.length; i ++) {
+			e[i] = estimates.get(i);
+		}
+		Arrays.sort(e);
+		return e[e.length / 2];
+	}
+
+	// The number of bits needed to write the indices 0 ... n - 1
+	private static int bitNumber(int n) {
+		int b = 1;
+		while ((1 << b) < n) {
+			b ++;
+		}
+		return b;
+	}
+
+	// Each XOR is {b, v1, ..., vk} meaning v1 xor ... xor vk = b, where each variable is picked with probability 1/2
+	// Variables are numbered from 1 to nbVars, the bit b of the index of vertex v being variable v*B + b + 1
+	private int[][] randomXors(int number, int nbVars) {
+		int[][] hashes = new int[number][];
+		for (int h = 0; h < number; h ++) {
+			int[] vars = new int[nbVars + 1];
+			int k = 1;
+			vars[0] = random.nextInt(2);
+			for (int x = 1; x <= nbVars; x ++) {
+				if (random.nextBoolean()) {
+					vars[k ++] = x;
+				}
+			}
+			hashes[h] = Arrays.copyOf(vars, k);
+		}
+		return hashes;
+	}
+
+	// Counts the solutions that satisfy the first m XORs, stopping at bound
+	private long countCell(Rikudo riku, int[][] hashes, int m, int bound) {
+
+		int n = riku.graph.vertexNumber();
+		int B = bitNumber(n);
+		int base = n*n;					// the bit b of the index of v is the variable base + v*B + b + 1
+		ISolver solver = riku.solverBuilder();
+
+		int aux = 0;
+		for (int h = 0; h < m; h ++) {
+			aux += Math.max(hashes[h].length - 2, 0);
+		}
+		solver.newVar(base + n*B + aux);
+
+		try {
+
+			// The bits are defined from the x_i,v: since exactly one x_i,v holds for each v, bit b of the index of v
+			// is the disjunction of the x_i,v where i has its bit b set
+			if (m > 0) {
+				for (int v = 0; v < n; v ++) {
+					for (int b = 0; b < B; b ++) {
+						int bit = base + v*B + b + 1;
+						VecInt definition = new VecInt();
+						definition.push(-bit);
+						for (int i = 0; i < n; i ++) {
+							if (((i >> b) & 1) == 1) {
+								definition.push(i + n*v + 1);
+								solver.addClause(new VecInt(new int[] {-(i + n*v + 1), bit}));
+							}
+						}
+						solver.addClause(definition);
+					}
+				}
+			}
+
+			int nextVar = base + n*B + 1;
+			for (int h = 0; h < m; h ++) {
+				int[] xor = hashes[h].clone();
+				for (int j = 1; j < xor.length; j ++) {
+					xor[j] += base;
+				}
+				nextVar = addXor(solver, xor, nextVar);
+			}
+		} catch (ContradictionException e) {
+			return 0;
+		}
+
+		return new SATSolutionIterator(solver, n).stream().limit(bound).count();
+	}
+
+	// Adds the XOR with a chain of auxiliary variables a_j <-> a_{j-1} xor v_j (Tseitin encoding), and returns the next free variable
+	private static int addXor(ISolver solver, int[] xor, int nextVar) throws ContradictionException {
+
+		int k = xor.length - 1;
+		boolean parity = xor[0] == 1;
+
+		if (k == 0) {
+			// The empty XOR is 0: it is either always true or never
+			if (parity) {
+				solver.addClause(new VecInt(new int[] {1}));
+				solver.addClause(new VecInt(new int[] {-1}));
+			}
+			return nextVar;
+		}
+
+		int acc = xor[1];
+		for (int j = 2; j <= k; j ++) {
+			int a = nextVar ++;
+			int v = xor[j];
+			solver.addClause(new VecInt(new int[] {-a, acc, v}));
+			solver.addClause(new VecInt(new int[] {-a, -acc, -v}));
+			solver.addClause(new VecInt(new int[] {a, -acc, v}));
+			solver.addClause(new VecInt(new int[] {a, acc, -v}));
+			acc = a;
+		}
+
+		solver.addClause(new VecInt(new int[] {parity ? acc : -acc}));
+		return nextVar;
+	}
+
+}
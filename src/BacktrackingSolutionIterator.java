@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+// Lazily enumerates the hamiltonian paths from s to t, optionally respecting a partial mapping and diamonds (Rikudo constraints)
+// The exploration of Graph.exploring_counting is done with an explicit stack, so that it can be suspended after
+// each path and resumed on the next call
+public class BacktrackingSolutionIterator implements Iterator<int[]> {
+
+	private Graph graph;
+	private int n;
+	private int t;
+	private int[] partialMap;							// may be null
+	private ArrayList<ArrayList<Integer>> diamonds;		// may be null
+	private int[] labelPosition;						// labelPosition[v] is the index imposed on v by the partial mapping, or -1
+
+	// The stack: path[0..depth] is the current path, and choice[i] is the index k of graph.neighbor(path[i], k), the next neighbor to try
+	private int[] path;
+	private int[] choice;
+	private boolean[] explored;
+	private int depth;
+
+	private int[] next;
+	private boolean done;
+
+	BacktrackingSolutionIterator(Graph g, int s, int t) {
+		this(g, s, t, null, null);
+	}
+
+	BacktrackingSolutionIterator(Graph g, int s, int t, int[] partialMap, ArrayList<ArrayList<Integer>> diamonds) {
+
+		graph = g;
+		n = g.vertexNumber();
+		this.t = t;
+		this.partialMap = partialMap;
+		this.diamonds = diamonds;
+
+		labelPosition = new int[n];
+		Arrays.fill(labelPosition, -1);
+		if (partialMap != null) {
+			for (int i = 0; i < n; i ++) {
+				if (partialMap[i] != -1) {
+					labelPosition[partialMap[i]] = i;
+				}
+			}
+		}
+
+		path = new int[n];
+		choice = new int[n];
+		explored = new boolean[n];
+
+		path[0] = s;
+		explored[s] = true;
+		depth = 0;
+
+		if (!canBeAt(s, 0) || (n == 1 && s != t)) {
+			done = true;
+		} else if (n == 1) {
+			next = new int[] {s};
+			done = true;
+		}
+	}
+
+	// Whether v can be placed at index i according to the endpoints and the partial mapping
+	private boolean canBeAt(int v, int i) {
+		if ((v == t) != (i == n - 1)) {
+			return false;
+		}
+		if (partialMap != null && partialMap[i] != -1 && partialMap[i] != v) {
+			return false;
+		}
+		return labelPosition[v] == -1 || labelPosition[v] == i;
+	}
+
+	// Whether the diamonds of u are all on the edges (prev, u) and (u, v), where prev or v may be -1 if u is an endpoint
+	private boolean diamondsFulfilled(int prev, int u, int v) {
+		if (diamonds == null) {
+			return true;
+		}
+		for (int w : diamonds.get(u)) {
+			if (w != prev && w != v) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Advances the exploration to the next complete path, or sets done
+	private void advance() {
+
+		while (depth >= 0) {
+
+			int u = path[depth];
+			int prev = (depth > 0) ? path[depth - 1] : -1;
+			if (choice[depth] < graph.degree(u)) {
+
+				int v = graph.neighbor(u, choice[depth]);
+				choice[depth] ++;
+
+				if (!explored[v] && canBeAt(v, depth + 1) && diamondsFulfilled(prev, u, v)) {
+
+					depth ++;
+					path[depth] = v;
+					choice[depth] = 0;
+					explored[v] = true;
+
+					if (depth == n - 1) {
+						// v is t, and it is the last vertex, so its diamonds must all lead to u
+						boolean complete = diamondsFulfilled(u, v, -1);
+
+						// We pop t right away so that the exploration resumes from u next time
+						explored[v] = false;
+						depth --;
+
+						if (complete) {
+							next = Arrays.copyOf(path, n);
+							return;
+						}
+					}
+				}
+
+			} else {
+				// Every neighbor of u has been tried: we backtrack
+				explored[u] = false;
+				depth --;
+			}
+		}
+
+		done = true;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !done) {
+			advance();
+		}
+		return next != null;
+	}
+
+	@Override
+	public int[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		int[] res = next;
+		next = null;
+		return res;
+	}
+
+	public Stream<int[]> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+}
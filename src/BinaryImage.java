@@ -1,25 +1,58 @@
 
 import java.awt.*;
 import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import javax.swing.JComponent;
 import javax.swing.JFrame;
+import javax.swing.JScrollPane;
 
 // Manipulation for binary images
+// The raster is bit-packed: each row is stored in wordsPerRow longs, the pixel (x,y) being the bit x % 64 of the word
+// y*wordsPerRow + x/64, with 1 for black and 0 for white. Rows start on a new word so that spans can be filled word by word.
+// The ARGB form of the image is only computed by toImage().
 public class BinaryImage {
 
 	private int width; // width of the image
 	private int height; // height of the image
-	private int[] raster; // raster for the image
+	private int wordsPerRow; // number of longs per row of the raster
+	private long[] raster; // raster for the image
+
+	// The region query structures, computed on demand and forgotten as soon as a pixel is modified
+	// They are built and forgotten under the lock of the image, and volatile for the methods that only peek at them
+	private volatile IntegralImage integral;
+	private volatile DistanceTransform distance;
+
+	// The rectangle [dirtyX0,dirtyX1) x [dirtyY0,dirtyY1) of the pixels modified since the last call to takeDirty (empty if
+	// dirtyX0 >= dirtyX1), so that the display only converts what changed
+	// It is guarded by dirtyLock, since the display takes it on another thread (and not by the lock of the image, which is held
+	// while the region query structures are built)
+	private int dirtyX0, dirtyY0, dirtyX1, dirtyY1;
+	private final Object dirtyLock = new Object();
+
+	static final int BLACK = 0xFF000000;
+	static final int WHITE = 0xFFFFFFFF;
 
 	// Constructor that instantiates an image of a specified width and height (all pixels are white)
 	public BinaryImage(int width, int height) {
 		this.width = width;
 		this.height = height;
-		raster = new int[width * height];
-		for (int i = 0; i < width * height; i++)
-			raster[i] = 0xFFFFFFFF;
+		wordsPerRow = (width + 63) >>> 6;
+		raster = new long[wordsPerRow * height];
 	}
 
 	// Constructor that instantiates a square image of a specified size (all pixels are black)
@@ -27,29 +60,194 @@ public class BinaryImage {
 		this(size, size);
 	}
 
-	// Constructor that reads an image from a specified file (.png format)
+	// Constructor that reads an image from a specified file (.png format, or any format ImageIO can read),
+	// or from a raw binary raster written by save (.bimg files)
 	public BinaryImage(String filename) {
 		// System.out.println("Opening image from file " + filename + " ... ");
-		java.awt.Image img = Toolkit.getDefaultToolkit().getImage(filename);
-		PixelGrabber pg = new PixelGrabber(img, 0, 0, -1, -1, true);
 		try {
-			pg.grabPixels();
-		} catch (InterruptedException e) {
-		}
-		raster = (int[]) pg.getPixels();
-		width = pg.getWidth();
-		height = pg.getHeight();
-		if (width == -1) {
+			if (filename.endsWith(RAW_EXTENSION)) {
+				readRaw(filename);
+			} else {
+				readImage(filename);
+			}
+		} catch (IOException e) {
 			System.out.println("Error in opening the file " + filename);
-			throw new IllegalArgumentException("Error in opening the file " + filename);
+			throw new IllegalArgumentException("Error in opening the file " + filename, e);
+		}
+	}
+	
+	// The number of pixels decoded at once: images with random access (like tiled TIFF) are read in horizontal bands of about
+	// BAND_PIXELS pixels, each band being thresholded straight into the raster, so that the whole ARGB image is never in memory
+	private static final int BAND_PIXELS = 1 << 22;
+	
+	// Reads the image with ImageIO (which doesn't need a display)
+	// The formats without random access (like PNG) would be decoded again from the start for each band, so they are decoded in
+	// a single pass and thresholded row by row: the decoded image is then in memory once. The raw format avoids this, and is
+	// much faster for images that are loaded several times.
+	private void readImage(String filename) throws IOException {
+		
+		ImageInputStream iis = ImageIO.createImageInputStream(new File(filename));
+		if (iis == null) {
+			throw new IOException("no such file");
+		}
+		
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext()) {
+				throw new IOException("unknown image format");
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(iis, false, true);
+				width = reader.getWidth(0);
+				height = reader.getHeight(0);
+				wordsPerRow = (width + 63) >>> 6;
+				raster = new long[wordsPerRow * height];
+				
+				boolean seekable = reader.isImageTiled(0) || reader.isRandomAccessEasy(0);
+				int bandHeight = seekable ? Math.max(1, BAND_PIXELS / width) : height;
+				int[] row = new int[width];
+				
+				for (int y0 = 0; y0 < height; y0 += bandHeight) {
+					int h = Math.min(bandHeight, height - y0);
+					ImageReadParam param = reader.getDefaultReadParam();
+					param.setSourceRegion(new Rectangle(0, y0, width, h));
+					BufferedImage band = reader.read(0, param);
+					
+					for (int y = 0; y < h; y ++) {
+						band.getRGB(0, y, width, 1, row, 0, width);
+						int offset = (y0 + y) * wordsPerRow;
+						for (int x = 0; x < width; x ++) {
+							if ((row[x] & 0xFFFFFF) == 0) {
+								raster[offset + (x >>> 6)] |= 1L << x;
+							}
+						}
+					}
+				}
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			iis.close();
+		}
+	}
+	
+	
+	// The raw format: the magic number, the width, the height, and then the words of the raster, all in big-endian order
+	static final String RAW_EXTENSION = ".bimg";
+	private static final int RAW_MAGIC = 0x42494D47;
+	private static final int RAW_HEADER = 12;
+	
+	// The files are mapped in chunks, since a single mapping is limited to 2 GB
+	private static final long MAP_CHUNK = 1L << 30;
+	
+	private void readRaw(String filename) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, RAW_HEADER);
+			if (header.getInt() != RAW_MAGIC) {
+				throw new IOException("not a raw binary image");
+			}
+			width = header.getInt();
+			height = header.getInt();
+			wordsPerRow = (width + 63) >>> 6;
+			raster = new long[wordsPerRow * height];
+			
+			if (channel.size() < RAW_HEADER + 8L * raster.length) {
+				throw new IOException("truncated raw binary image");
+			}
+			
+			int done = 0;
+			while (done < raster.length) {
+				int words = (int) Math.min(raster.length - done, MAP_CHUNK / 8);
+				MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, RAW_HEADER + 8L * done, 8L * words);
+				chunk.asLongBuffer().get(raster, done, words);
+				done += words;
+			}
+		}
+	}
+	
+	// Writes the image in the raw format, which can then be loaded again with new BinaryImage(filename)
+	public void save(String filename) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			
+			ByteBuffer header = ByteBuffer.allocate(RAW_HEADER);
+			header.putInt(RAW_MAGIC).putInt(width).putInt(height);
+			header.flip();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			LongBuffer longs = buffer.asLongBuffer();
+			int done = 0;
+			while (done < raster.length) {
+				int words = Math.min(raster.length - done, longs.capacity());
+				longs.clear();
+				longs.put(raster, done, words);
+				buffer.clear();
+				buffer.limit(8 * words);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				done += words;
+			}
 		}
 	}
 
 	// Produces a printable image from the raster
 	public java.awt.Image toImage() {
-		ImageProducer ip = new MemoryImageSource(width, height, raster, 0, width);
+		ImageProducer ip = new MemoryImageSource(width, height, toARGB(), 0, width);
 		return Toolkit.getDefaultToolkit().createImage(ip);
 	}
+	
+	// The raster as one ARGB int per pixel
+	public int[] toARGB() {
+		int[] argb = new int[width * height];
+		for (int y = 0; y < height; y ++) {
+			for (int x = 0; x < width; x ++) {
+				argb[x + width * y] = isBlack(x, y) ? BLACK : WHITE;
+			}
+		}
+		return argb;
+	}
+
+	// REVERSED[b] is the byte b with its bits in the reverse order: the raster stores the pixel x in the bit x % 64 of a long,
+	// while a BufferedImage of type TYPE_BYTE_BINARY stores it in the bit 7 - x % 8 of a byte
+	private static final byte[] REVERSED = new byte[256];
+	static {
+		for (int b = 0; b < 256; b ++) {
+			REVERSED[b] = (byte) (Integer.reverse(b) >>> 24);
+		}
+	}
+	
+	// A 1-bit BufferedImage of the same size, for display and for ImageIO
+	public BufferedImage toBufferedImage() {
+		BufferedImage res = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+		copyTo(res, new Rectangle(0, 0, width, height));
+		return res;
+	}
+	
+	// Copies the pixels of region into a BufferedImage of type TYPE_BYTE_BINARY of the same size, a byte (8 pixels) at a time
+	void copyTo(BufferedImage binary, Rectangle region) {
+		byte[] bytes = ((DataBufferByte) binary.getRaster().getDataBuffer()).getData();
+		int stride = (width + 7) >>> 3;
+		
+		// The default palette of TYPE_BYTE_BINARY is 0 for black and 1 for white, the opposite of the raster
+		for (int y = region.y; y < region.y + region.height; y ++) {
+			for (int k = region.x >>> 3; k <= (region.x + region.width - 1) >>> 3; k ++) {
+				int b = (int) (raster[y * wordsPerRow + (k >>> 3)] >>> ((k & 7) << 3)) & 0xFF;
+				bytes[y * stride + k] = (byte) ~REVERSED[b];
+			}
+		}
+	}
+	
+	// Writes the image as a 1-bit PNG file, without needing a display
+	public void writePNG(String filename) throws IOException {
+		if (!ImageIO.write(toBufferedImage(), "png", new File(filename))) {
+			throw new IOException("no PNG writer");
+		}
+	}
 
 	// Return the width of the image
 	public int getWidth() {
@@ -66,12 +264,23 @@ public class BinaryImage {
 		return (this.width == this.height ? this.width : -1);
 	}
 
-	// Set the pixel at position (x,y) to color c
+	// Set the pixel at position (x,y) to color c (black if its RGB part is 0, and white otherwise)
 	protected void setPixel(int x, int y, int c) {
 		if (x < 0 || x >= width || y < 0 || y >= height) {
 			throw new IllegalArgumentException("illegal position");
 		}
-		raster[x + width * y] = c;
+		setBit(x, y, (c & 0xFFFFFF) == 0);
+		changed(x, y, x + 1, y + 1);
+	}
+	
+	// The same without updating the caches and the dirty region, for the loops that modify many pixels: they call changed
+	// once at the end
+	private void setBit(int x, int y, boolean black) {
+		if (black) {
+			raster[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+		} else {
+			raster[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+		}
 	}
 
 	// Test whether a pixel is black or white
@@ -79,7 +288,7 @@ public class BinaryImage {
 		if (x < 0 || x >= width || y < 0 || y >= height) {
 			throw new IllegalArgumentException("illegal position");
 		}
-		return (raster[x + width * y] & 0xFFFFFF) == 0;
+		return (raster[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
 	}
 
 	// Test whether a pixel is black and within the image, at at distance at least d from the border
@@ -87,31 +296,209 @@ public class BinaryImage {
 		if (x < d || x >= width - d || y < d || y >= height - d) {
 			return false;
 		}
-		return (raster[x + width * y] & 0xFFFFFF) == 0;
+		return (raster[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+	
+	// Test whether the hexagon of center (x,y) and radius r (as in drawHexagon) is entirely black and within the image
+	// The hexagon contains the disk of radius r*sqrt(3)/2 and is contained in the disk of radius r, so a single read in the
+	// distance transform decides, except for the centers whose nearest white pixel is between the two disks: only then are
+	// the rows of the hexagon checked, word by word
+	public boolean isHexagonBlack(int x, int y, double r) {
+		return isHexagonBlack(distanceTransform(), x, y, r);
+	}
+	
+	boolean isHexagonBlack(DistanceTransform dt, int x, int y, double r) {
+		if (dt.isDiskBlack(x, y, r)) {
+			return true;
+		}
+		double h = HexLattice.SQRT3 * r / 2;
+		if (dt.squaredDistance(x, y) < h * h * (1 - 1e-9)) {
+			return false;
+		}
+		// The row y + dy of the hexagon is |dx| <= r - |dy|/sqrt(3), for |dy| <= h
+		int rows = (int) Math.floor(h);
+		if (y - rows < 0 || y + rows >= height) {
+			return false;
+		}
+		for (int dy = - rows; dy <= rows; dy ++) {
+			int half = (int) Math.floor(r - Math.abs(dy) / HexLattice.SQRT3 + 1e-9);
+			if (x - half < 0 || x + half >= width || !isSpanConstant(y + dy, x - half, x + half + 1, true)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// The number of black pixels in the rectangle [x0,x1) x [y0,y1), clipped to the image
+	public int countBlack(int x0, int y0, int x1, int y1) {
+		return integralImage().count(x0, y0, x1, y1);
+	}
+	
+	// The image of the valid centers of the hexagons of radius r: a pixel is black iff the hexagon of radius r around it is
+	// The erosion by the disk inscribed in the hexagon gives the candidates, and those whose circumscribed disk isn't black
+	// are checked with isHexagonBlack
+	public BinaryImage validCenters(double r) {
+		DistanceTransform dt = distanceTransform();
+		BinaryImage res = dt.erosion(HexLattice.SQRT3 * r / 2 * (1 - 1e-9));
+		for (int y = 0; y < height; y ++) {
+			for (int x = 0; x < width; x ++) {
+				if (res.isBlack(x, y) && !dt.isDiskBlack(x, y, r) && !isHexagonBlack(dt, x, y, r)) {
+					res.setBit(x, y, false);
+				}
+			}
+		}
+		res.changed(0, 0, width, height);
+		return res;
+	}
+	
+	// The summed-area table of the image, built at the first call after a modification
+	public synchronized IntegralImage integralImage() {
+		if (integral == null) {
+			integral = new IntegralImage(this);
+		}
+		return integral;
+	}
+	
+	// The distance transform of the image, built at the first call after a modification
+	public synchronized DistanceTransform distanceTransform() {
+		if (distance == null) {
+			distance = new DistanceTransform(this);
+		}
+		return distance;
+	}
+	
+	synchronized void modified() {
+		integral = null;
+		distance = null;
+	}
+	
+	// Forgets the caches and adds the rectangle [x0,x1) x [y0,y1) to the dirty region, once per drawing operation
+	void changed(int x0, int y0, int x1, int y1) {
+		modified();
+		markDirty(x0, y0, x1, y1);
+	}
+	
+	// Adds the rectangle [x0,x1) x [y0,y1) (clipped to the image) to the dirty region
+	void markDirty(int x0, int y0, int x1, int y1) {
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+		x1 = Math.min(x1, width);
+		y1 = Math.min(y1, height);
+		if (x0 >= x1 || y0 >= y1) {
+			return;
+		}
+		synchronized (dirtyLock) {
+			if (dirtyX0 >= dirtyX1) {
+				dirtyX0 = x0;
+				dirtyY0 = y0;
+				dirtyX1 = x1;
+				dirtyY1 = y1;
+			} else {
+				dirtyX0 = Math.min(dirtyX0, x0);
+				dirtyY0 = Math.min(dirtyY0, y0);
+				dirtyX1 = Math.max(dirtyX1, x1);
+				dirtyY1 = Math.max(dirtyY1, y1);
+			}
+		}
+	}
+	
+	// Returns the region modified since the last call (or null if there is none), and empties it
+	Rectangle takeDirty() {
+		synchronized (dirtyLock) {
+			if (dirtyX0 >= dirtyX1) {
+				return null;
+			}
+			Rectangle res = new Rectangle(dirtyX0, dirtyY0, dirtyX1 - dirtyX0, dirtyY1 - dirtyY0);
+			dirtyX0 = dirtyX1 = 0;
+			return res;
+		}
+	}
+	
+	// The raw raster, for the classes that read it word by word
+	long[] raster() {
+		return raster;
+	}
+	
+	int wordsPerRow() {
+		return wordsPerRow;
 	}
 	
 	// Blacken the pixel at position (x,y)
 	public void toBlack(int x, int y) {
-		this.setPixel(x, y, 0xFF000000);
+		this.setPixel(x, y, BLACK);
 	}
 
 	// Whiten the pixel at position (x,y)
 	public void toWhite(int x, int y) {
-		this.setPixel(x, y, 0xFFFFFFFF);
+		this.setPixel(x, y, WHITE);
+	}
+	
+	
+	// Word-level operations on spans [x0, x1) of a row, which must be within the image
+	
+	// The mask of the bits [a, b) of a word, with 0 <= a < b <= 64
+	private static long mask(int a, int b) {
+		return (b == 64 ? -1L : (1L << b) - 1) & (-1L << a);
+	}
+	
+	// Fill the pixels x0 <= x < x1 of row y with black or white
+	// The caches and the dirty region of the image are not updated: this must be done once by the caller (see changed)
+	void fillSpan(int y, int x0, int x1, boolean black) {
+		if (x0 >= x1) {
+			return;
+		}
+		int row = y * wordsPerRow;
+		int w0 = x0 >>> 6;
+		int w1 = (x1 - 1) >>> 6;
+		if (w0 == w1) {
+			long m = mask(x0 & 63, ((x1 - 1) & 63) + 1);
+			raster[row + w0] = black ? raster[row + w0] | m : raster[row + w0] & ~m;
+			return;
+		}
+		long m0 = mask(x0 & 63, 64);
+		long m1 = mask(0, ((x1 - 1) & 63) + 1);
+		raster[row + w0] = black ? raster[row + w0] | m0 : raster[row + w0] & ~m0;
+		raster[row + w1] = black ? raster[row + w1] | m1 : raster[row + w1] & ~m1;
+		java.util.Arrays.fill(raster, row + w0 + 1, row + w1, black ? -1L : 0L);
+	}
+	
+	// Test whether the pixels x0 <= x < x1 of row y are all black, or all white
+	boolean isSpanConstant(int y, int x0, int x1, boolean black) {
+		if (x0 >= x1) {
+			return true;
+		}
+		int row = y * wordsPerRow;
+		int w0 = x0 >>> 6;
+		int w1 = (x1 - 1) >>> 6;
+		for (int w = w0; w <= w1; w ++) {
+			long m = mask(w == w0 ? x0 & 63 : 0, w == w1 ? ((x1 - 1) & 63) + 1 : 64);
+			if ((raster[row + w] & m) != (black ? m : 0)) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	// Fill the pixel of a squared area with black color. The area is defined by its top left corner P=(x,y) and by its size.
 	public void fillAreaBlack(int x, int y, int size) {
-		for (int i = 0; i < size; i++)
-			for (int j = 0; j < size; j++)
-				toBlack(x + i, y + j);
+		fillArea(x, y, size, true);
 	}
 
 	// Fill the pixel of a squared area with white color. The area is defined by its top left corner P=(x,y) and by its size.
 	public void fillAreaWhite(int x, int y, int size) {
-		for (int i = 0; i < size; i++)
-			for (int j = 0; j < size; j++)
-				toWhite(x + i, y + j);
+		fillArea(x, y, size, false);
+	}
+	
+	private void fillArea(int x, int y, int size, boolean black) {
+		if (size <= 0) {
+			return;
+		}
+		if (x < 0 || x + size > width || y < 0 || y + size > height) {
+			throw new IllegalArgumentException("illegal position");
+		}
+		for (int j = 0; j < size; j++)
+			fillSpan(y + j, x, x + size, black);
+		changed(x, y, x + size, y + size);
 	}
 
 	// Test whether all pixels in a given square region are of the same color
@@ -119,11 +506,20 @@ public class BinaryImage {
 		if (x < 0 || x + size > width || y < 0 || y + size > height) {
 			throw new IllegalArgumentException("illegal position");
 		}
-		for (int i = 0; i < size; i++)
-			for (int j = 0; j < size; j++) {
-				if (raster[x + width * y] != raster[(x + i) + width * (y + j)])
-					return false;
-			}
+		if (size <= 0) {
+			return true;
+		}
+		// If the summed-area table is already there, a single query is enough
+		IntegralImage table = integral;
+		if (table != null) {
+			int count = table.count(x, y, x + size, y + size);
+			return count == 0 || count == size * size;
+		}
+		boolean black = isBlack(x, y);
+		for (int j = 0; j < size; j++) {
+			if (!isSpanConstant(y + j, x, x + size, black))
+				return false;
+		}
 		return true;
 	}
 	
@@ -133,20 +529,21 @@ public class BinaryImage {
 		
 		double x = p.x;
 		double y = p.y;
+		double h = (HexLattice.SQRT3 * d)/2;
 		
 		switch(i) {
 		case 1:
-			return new Point(x + ((Math.sqrt(3) * d)/2), y - (d/2));
+			return new Point(x + h, y - (d/2));
 		case 2:
 			return new Point(x, y - d);
 		case 3:
-			return new Point(x - ((Math.sqrt(3) * d)/2), y - (d/2));
+			return new Point(x - h, y - (d/2));
 		case 4:
-			return new Point(x - ((Math.sqrt(3) * d)/2), y + (d/2));
+			return new Point(x - h, y + (d/2));
 		case 5:
 			return new Point(x, y + d);
 		case 6:
-			return new Point(x + ((Math.sqrt(3) * d)/2), y + (d/2));
+			return new Point(x + h, y + (d/2));
 		default:
 			System.out.println("ERROR");
 			return p;
@@ -155,117 +552,103 @@ public class BinaryImage {
 		
 		
 	// Returns an ordered ArrayList of points that represents a graph with a path that is in the black area
+	// The exploration is done on the hexagonal lattice of the image, where the cells are integers and the path is a bitset,
+	// so that each step is done in constant time. Points are only built for the result.
 	public ArrayList<Point> greatestPath(int xs, int ys, double d, int nbCalls) {
+		return greatestPath(xs, ys, d, (long) nbCalls);
+	}
+	
+	// Overloading greatestPath in case we want to explore all the possibilities
+	public ArrayList<Point> greatestPath(int xs, int ys, double d) {
+		return greatestPath(xs, ys, d, Long.MAX_VALUE);
+	}
+	
+	// The same, with the cells that pass test instead of the cells whose center is black (HexLattice.hexagonTest keeps the
+	// cells whose whole hexagon is black)
+	public ArrayList<Point> greatestPath(int xs, int ys, double d, HexLattice.CenterTest test) {
+		return greatestPath(new HexLattice(this, xs, ys, d, test), Long.MAX_VALUE);
+	}
+	
+	private ArrayList<Point> greatestPath(int xs, int ys, double d, long nbCalls) {
+		return greatestPath(new HexLattice(this, xs, ys, d), nbCalls);
+	}
+	
+	private ArrayList<Point> greatestPath(HexLattice lattice, long nbCalls) {
+		
+		LatticeExplorer explorer = new LatticeExplorer(lattice);
+		
+		int[] best = explorer.explore(lattice.origin(), nbCalls);
+		
+		return lattice.toPoints(best, explorer.bestLength());
+	}
+	
+	
+	// Anytime version of greatestPath: the search runs for timeBudgetMillis at most and always returns the best path found so far
+	// It starts from the path given by longPath, and then tries to improve it with the exhaustive search
+	// Each improvement of the best path is published to listener, which may be null
+	public ArrayList<Point> greatestPathAnytime(int xs, int ys, double d, long timeBudgetMillis, PathListener listener) {
 		
-		// We create a list that contains a counter of the number of remaining calls to explorer
-		int[] counter = new int[] {nbCalls};
+		HexLattice lattice = new HexLattice(this, xs, ys, d);
 		
-		Point currentPoint = new Point(xs, ys);
-		ArrayList<Point> coordinate = new ArrayList<Point>();
-		coordinate.add(currentPoint);
-		ArrayList<Point> bestCoordinate = new ArrayList<Point>();
-		bestCoordinate.add(currentPoint);
+		LongPathBuilder builder = new LongPathBuilder(lattice);
+		int[] seed = builder.build(lattice.origin());
 		
-		explorer(currentPoint, coordinate, bestCoordinate, d, counter);
+		LatticeExplorer explorer = new LatticeExplorer(lattice);
+		int[] best = explorer.explore(lattice.origin(), Long.MAX_VALUE, timeBudgetMillis, seed, builder.length(), listener);
 		
-		return bestCoordinate;
+		return lattice.toPoints(best, explorer.bestLength());
 	}
 	
-	private void explorer(Point currentPoint, ArrayList<Point> coordinate, ArrayList<Point> bestCoordinate, double d, int[] counter) {
-				
-		counter[0] --;
-
-		// We don't run explorer if the counter lower than 0
-		if (counter[0] < 0) {
-			return;
-		}
-				
-		// Otherwise, for each edge of the hexagon, we examine whether we can add the corresponding vertex to our path
-		for (int i = 1; i <= 6; i ++) {
-			
-			Point nextPoint = next(currentPoint, i, d);
-			
-			// We check if we can add nextPoint to the path
-			if (isBlackGeneralized(nextPoint.xint(), nextPoint.yint(), (int) d) && !(Point.isInArray(nextPoint, coordinate, d))) {
-				
-				// We memorize coordinate for so when we try to explore to another point, we have the same previous path
-				// We create only a shallow copy, but since we never modify Point objects, it does not matter
-				ArrayList<Point> coor = new ArrayList<Point>(coordinate);
-				
-				// We add nextPoint to the path
-				coordinate.add(nextPoint);
-				
-				// If the path is the greatest so far, we memorize it
-				if (coordinate.size() > bestCoordinate.size()) {
-					// We empty bestCoordinate and then re-fill it so it remains the same object
-					bestCoordinate.clear();
-					bestCoordinate.addAll(coordinate);
-				}
-				
-				explorer(nextPoint, coordinate, bestCoordinate, d, counter);
-				
-				coordinate = coor;
-			}
-		}
+	// Parallel version of greatestPathAnytime, that doesn't need a starting point: many starting cells, lattice offsets and
+	// orders of the directions are tried at the same time on the given number of threads (see ParallelPathSearch)
+	public ArrayList<Point> greatestPathParallel(double d, int threads, long timeBudgetMillis) {
+		return new ParallelPathSearch(this, d, threads).search(timeBudgetMillis);
 	}
 	
-	// The version of explorer with infinite number of calls
-	private void infiniteExplorer(Point currentPoint, ArrayList<Point> coordinate, ArrayList<Point> bestCoordinate, double d) {
-		
-		// For each edge of the hexagon, we examine whether we can add the corresponding vertex to our path
-		for (int i = 1; i <= 6; i ++) {
-			
-			Point nextPoint = next(currentPoint, i, d);
-			
-			// We check if we can add nextPoint to the path
-			if (isBlackGeneralized(nextPoint.xint(), nextPoint.yint(), (int) d) && !(Point.isInArray(nextPoint, coordinate, d))) {
-				
-				// We memorize coordinate for so when we try to explore to another point, we have the same previous path
-				// We create only a shallow copy, but since we never modify Point objects, it does not matter
-				ArrayList<Point> coor = new ArrayList<Point>(coordinate);
-				
-				// We add nextPoint to the path
-				coordinate.add(nextPoint);
-				
-				// If the path is the greatest so far, we memorize it
-				if (coordinate.size() > bestCoordinate.size()) {
-					// We empty bestCoordinate and then re-fill it so it remains the same object
-					bestCoordinate.clear();
-					bestCoordinate.addAll(coordinate);
-				}
-				
-				infiniteExplorer(nextPoint, coordinate, bestCoordinate, d);
-				
-				coordinate = coor;
-			}
-		}
+	// Returns a long path in the black area, starting from (xs,ys), built heuristically (see LongPathBuilder)
+	// It doesn't guarantee to find the greatest path, but it covers most of the black area even for large images
+	public ArrayList<Point> longPath(int xs, int ys, double d) {
+		HexLattice lattice = new HexLattice(this, xs, ys, d);
+		return longPath(lattice, lattice.origin());
 	}
 	
+	// The same, with the cells that pass test (see greatestPath)
+	public ArrayList<Point> longPath(int xs, int ys, double d, HexLattice.CenterTest test) {
+		HexLattice lattice = new HexLattice(this, xs, ys, d, test);
+		return longPath(lattice, lattice.origin());
+	}
 	
-	// Overloading greatestPath in case we want to explore all the possibilities
-	public ArrayList<Point> greatestPath(int xs, int ys, double d) {
+	// The same, on a lattice built beforehand (by LatticeFit.lattice for instance) and from its cell start
+	ArrayList<Point> longPath(HexLattice lattice, int start) {
 		
-		Point currentPoint = new Point(xs, ys);
-		ArrayList<Point> coordinate = new ArrayList<Point>();
-		coordinate.add(currentPoint);
-		ArrayList<Point> bestCoordinate = new ArrayList<Point>();
-		bestCoordinate.add(currentPoint);
+		LongPathBuilder builder = new LongPathBuilder(lattice);
 		
-		infiniteExplorer(currentPoint, coordinate, bestCoordinate, d);
+		int[] path = builder.build(start);
 		
-		return bestCoordinate;
+		return lattice.toPoints(path, builder.length());
 	}
 	
 	
-	// Draws a circle with center (a,b) and radius r
+	// Drawing is done by spans: for each row, the pixels of the shape form an interval (the shapes are convex), whose ends are
+	// computed analytically, clipped to the image and filled word by word with fillSpan
+	
+	// Draws a circle with center (a,b) and radius r (the pixels at distance at most r from the center)
 	public void drawCircle(int a, int b, int r) {
-		for (int x = a - r; x <= a + r; x ++) {
-			for (int y = b - r; y <= b + r; y ++) {
-				if ((x - a)*(x - a) + (y - b)*(y - b) <= r*r) {
-					toBlack(x,y);
-				}
-			}
+		if (r < 0) {
+			return;
+		}
+		int y0 = Math.max(b - r, 0);
+		int y1 = Math.min(b + r, height - 1);
+		for (int y = y0; y <= y1; y ++) {
+			int half = (int) Math.sqrt(r*r - (y - b)*(y - b));
+			fillClippedSpan(y, a - half, a + half);
 		}
+		changed(a - r, b - r, a + r + 1, b + r + 1);
+	}
+	
+	// Fills the pixels x0 <= x <= x1 of row y that are within the image
+	private void fillClippedSpan(int y, int x0, int x1) {
+		fillSpan(y, Math.max(x0, 0), Math.min(x1 + 1, width), true);
 	}
 	
 	
@@ -279,86 +662,157 @@ public class BinaryImage {
 	}
 	
 	
-	// Draws a line from (x1,y1) to (x2,y2) with width w
+	// Draws a line from (x1,y1) to (x2,y2) with width w: the pixels at distance at most w from the segment
+	// This capsule is the union of the two disks at the ends and of the rectangle of the segment, and since it is convex,
+	// its span on a row goes from the leftmost to the rightmost end of the spans of these three parts
 	public void drawLine(int x1, int y1, int x2, int y2, int w) {
 		
-		// Useful stuff
-		int xmax = Math.max(x1, x2);
-		int xmin = Math.min(x1, x2);
-		int ymax = Math.max(y1, y2);
-		int ymin = Math.min(y1, y2);
-		
-		// The circles at the end of the lines
-		drawCircle(x1, y1, w);
-		drawCircle(x2, y2, w);
-		
-		// The general method does not work with x1 = x2 or y1 = y2 because of infinite slopes so we deal with it like that:
-		if (x1 == x2) {
-			for (int x = x1 - w; x <= x1 + w; x ++) {
-				for (int y = ymin; y <= ymax; y ++) {
-					toBlack(x,y);
-				}
-			}
+		if (w < 0) {
 			return;
 		}
 		
-		if (y1 == y2) {
-			for (int y = y1 - w; y <= y1 + w; y ++) {
-				for (int x = xmin; x <= xmax; x ++) {
-					toBlack(x,y);
+		// The corners of the rectangle: the ends of the segment shifted by w along the normal
+		// They are relative to (x1,y1), so that the rounding of the spans doesn't depend on the position of the line
+		double length = distance(x1, y1, x2, y2);
+		double nx = (length == 0) ? 0 : - (y2 - y1) * w / length;
+		double ny = (length == 0) ? 0 : (x2 - x1) * w / length;
+		double[] cx = new double[] {nx, x2 - x1 + nx, x2 - x1 - nx, - nx};
+		double[] cy = new double[] {ny, y2 - y1 + ny, y2 - y1 - ny, - ny};
+		
+		int y0 = Math.max(Math.min(y1, y2) - w, 0);
+		int yEnd = Math.min(Math.max(y1, y2) + w, height - 1);
+		
+		for (int y = y0; y <= yEnd; y ++) {
+			
+			int left = Integer.MAX_VALUE;
+			int right = Integer.MIN_VALUE;
+			
+			// The disks at the ends
+			for (int k = 0; k < 2; k ++) {
+				int a = (k == 0) ? x1 : x2;
+				int dy = y - ((k == 0) ? y1 : y2);
+				if (dy*dy <= w*w) {
+					int half = (int) Math.sqrt(w*w - dy*dy);
+					left = Math.min(left, a - half);
+					right = Math.max(right, a + half);
 				}
 			}
-			return;
+			
+			// The rectangle, with the row relative to y1
+			int ry = y - y1;
+			double xl = Double.POSITIVE_INFINITY;
+			double xr = Double.NEGATIVE_INFINITY;
+			for (int k = 0; k < 4; k ++) {
+				double ax = cx[k], ay = cy[k], bx = cx[(k + 1) % 4], by = cy[(k + 1) % 4];
+				if (ry < Math.min(ay, by) || ry > Math.max(ay, by)) {
+					continue;
+				}
+				if (ay == by) {
+					xl = Math.min(xl, Math.min(ax, bx));
+					xr = Math.max(xr, Math.max(ax, bx));
+				} else {
+					double x = ax + (ry - ay) * (bx - ax) / (by - ay);
+					xl = Math.min(xl, x);
+					xr = Math.max(xr, x);
+				}
+			}
+			if (xl <= xr) {
+				left = Math.min(left, x1 + (int) Math.ceil(xl));
+				right = Math.max(right, x1 + (int) Math.floor(xr));
+			}
+			
+			if (left <= right) {
+				fillClippedSpan(y, left, right);
+			}
 		}
+		changed(Math.min(x1, x2) - w, Math.min(y1, y2) - w, Math.max(x1, x2) + w + 1, Math.max(y1, y2) + w + 1);
 		
+	}
+	
+	// Draws the lines between the consecutive points (xs[k],ys[k]), and between the last and the first ones if closed
+	public void drawPolyline(int[] xs, int[] ys, int w, boolean closed) {
+		int n = xs.length;
+		for (int k = 0; k < (closed ? n : n - 1); k ++) {
+			drawLine(xs[k], ys[k], xs[(k + 1) % n], ys[(k + 1) % n], w);
+		}
+	}
+	
+	
+	// Copies the black pixels of the stamp, with its anchor at (x,y), clipped to the image
+	// Each word of a row of the mask is shifted to its position and ORed into (at most) two words of the raster
+	public void blit(Stamp stamp, int x, int y) {
+		blit(stamp, x, y, 0, height);
+		int x0 = x - stamp.ox();
+		int y0 = y - stamp.oy();
+		changed(x0, y0, x0 + stamp.mask().width, y0 + stamp.mask().height);
+	}
+	
+	// The same, restricted to the rows yMin <= y < yMax, for the renderers that share the image between threads by rows
+	// (rows don't share words, so threads writing distinct rows don't interfere)
+	// The caches and the dirty region of the image are not updated: this must be done once by the caller
+	void blit(Stamp stamp, int x, int y, int yMin, int yMax) {
 		
-		double segLength = distance(x1, y1, x2, y2);
-		double dd = Math.sqrt(w*w + segLength*segLength);
+		BinaryImage mask = stamp.mask();
+		int x0 = x - stamp.ox();
+		int y0 = y - stamp.oy();
+		int shift = x0 & 63;
+		int base = x0 >> 6;
 		
-		// The parameters of d, the line from z1 to z2
-		double a = (y2 - y1 + 0.)/(x2 - x1);
-		double b = - ((x1 * (y2 - y1 + 0.))/(x2 - x1)) + y1;
+		// The bits of the last word of a row that are beyond the width stay white
+		long last = ((width & 63) == 0) ? -1L : (1L << width) - 1;
 		
-		for (int x = xmin - w; x <= xmax + w; x ++) {
-			for (int y = ymin - w; y <= ymax + w; y ++) {
-				
-				// The parameters of the line orthogonal to d that passes through (x,y)
-				double ao = -1/a;
-				double bo = y - ao*x;
-				
-				// Computing the coordinates of the intersection point
-				double xi = (bo - b)/(a - ao);
-				double yi = ao*xi + bo;
-				
-				// Computing the distance between (x,y) and d
-				double dist = distance(x, y, xi, yi);
-				
-				if (dist < w && distance(x, y, x1, y1) < dd && distance(x, y, x2, y2) < dd) {
-					toBlack(x,y);
+		for (int j = Math.max(0, yMin - y0); j < mask.height && y0 + j < yMax; j ++) {
+			int row = (y0 + j) * wordsPerRow;
+			int src = j * mask.wordsPerRow;
+			for (int k = 0; k < mask.wordsPerRow; k ++) {
+				long bits = mask.raster[src + k];
+				if (bits == 0) {
+					continue;
+				}
+				orWord(row, base + k, bits << shift, last);
+				if (shift != 0) {
+					orWord(row, base + k + 1, bits >>> (64 - shift), last);
 				}
-				
 			}
 		}
-		
+	}
+	
+	private void orWord(int row, int word, long bits, long last) {
+		if (word < 0 || word >= wordsPerRow) {
+			return;
+		}
+		if (word == wordsPerRow - 1) {
+			bits &= last;
+		}
+		raster[row + word] |= bits;
+	}
+	
+	// Same as drawHexagon, with a cached stamp (see Stamp)
+	public void stampHexagon(int x, int y, int r, int w) {
+		blit(Stamp.hexagon(r, w), x, y);
+	}
+	
+	// Same as drawDiamond, with a cached stamp
+	public void stampDiamond(int x, int y, int r, int w) {
+		blit(Stamp.diamond(r, w), x, y);
 	}
 	
 	
 	// Draws an hexagon with center (x,y), radius r and width w
+	// The vertices are rounded down, by integer offsets from the center so that the shape doesn't depend on the sign of x and y
 	public void drawHexagon(int x, int y, int r, int w) {
-		drawLine(x + 1*r, y, (int) (x + 0.5*r), (int) (y + (Math.sqrt(3)*r)/2), w);
-		drawLine((int) (x + 0.5*r), (int) (y + (Math.sqrt(3)*r)/2), (int) (x - 0.5*r), (int) (y + (Math.sqrt(3)*r)/2), w);
-		drawLine((int) (x - 0.5*r), (int) (y + (Math.sqrt(3)*r)/2), x - 1*r, y, w);
-		drawLine(x + 1*r, y, (int) (x + 0.5*r), (int) (y - (Math.sqrt(3)*r)/2), w);
-		drawLine((int) (x + 0.5*r), (int) (y - (Math.sqrt(3)*r)/2), (int) (x - 0.5*r), (int) (y - (Math.sqrt(3)*r)/2), w);
-		drawLine((int) (x - 0.5*r), (int) (y - (Math.sqrt(3)*r)/2), x - 1*r, y, w);
+		int right = (int) Math.floor(0.5*r);
+		int left = (int) Math.ceil(0.5*r);
+		int down = (int) Math.floor((Math.sqrt(3)*r)/2);
+		int up = (int) Math.ceil((Math.sqrt(3)*r)/2);
+		int[] xs = new int[] {x + r, x + right, x - left, x - r, x - left, x + right};
+		int[] ys = new int[] {y, y + down, y + down, y, y - up, y - up};
+		drawPolyline(xs, ys, w, true);
 	}
 	
 	// Draws a diamond with center (x,y), radius r and width w
 	public void drawDiamond(int x, int y, int r, int w) {
-		drawLine(x + r, y, x, y + r, w);
-		drawLine(x, y + r, x - r, y, w);
-		drawLine(x - r, y, x, y - r, w);
-		drawLine(x, y - r, x + r, y, w);
+		drawPolyline(new int[] {x + r, x, x - r, x}, new int[] {y, y + r, y, y - r}, w, true);
 	}
 	
 	
@@ -474,29 +928,9 @@ public class BinaryImage {
 
 	
 	
-	// Draws the integer n in a rectangle centered in (x,y) with width w and height h
+	// Draws the integer n in a rectangle centered in (x,y) with width w and height h, with the cached stamps of the digits
 	public void drawInt(int n, int x, int y, int w, int h) {
-		
-		int digitNumber;
-		
-		// comute the number of digits
-		if (n >= 1) {
-			digitNumber = (int) Math.log10(n) + 1;
-		}
-		else {digitNumber = 1;}
-		
-		// Define the width of each digit
-		int digitWidth = w/digitNumber;
-		
-		// The starting point of the first digit
-		int x0 = x - w/2;
-		int y0 = y - h/2;
-		
-		// Drawing each digit
-		for (int k = 0; k < digitNumber; k ++) {
-			int d = ((int) (n/Math.pow(10, k))) % 10;
-			drawD(d, x0 + (digitNumber - k - 1)*digitWidth, y0, digitWidth, h);
-		}
+		Stamp.integer(n, x, y, w, h, this::blit);
 	}
 	
 	public static void main(String[] args) {
@@ -553,39 +987,91 @@ class ImageViewer extends JFrame {
 	private static final long serialVersionUID = -7498525833438154949L;
 	static int xLocation = 0;
 
+	// The largest initial size of the window: larger images are scrolled
+	private static final int MAX_VIEW_WIDTH = 1200;
+	private static final int MAX_VIEW_HEIGHT = 900;
+
 	public ImageViewer(BinaryImage img) {
 		this.setLocation(xLocation, 0);
 		setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
-		ImageComponent ic = new ImageComponent(img);
-		add(ic);
+		add(scrolled(new ImageComponent(img)));
 		pack();
 		setVisible(true);
-		xLocation += img.getWidth();
+		xLocation += Math.min(img.getWidth(), MAX_VIEW_WIDTH);
 	}
 
 	public ImageViewer(BinaryImage img, String name) {
 		this.setTitle(name);
 		this.setLocation(xLocation, 0);
 		setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
-		ImageComponent ic = new ImageComponent(img);
-		add(ic);
+		add(scrolled(new ImageComponent(img)));
 		pack();
 		setVisible(true);
-		xLocation += img.getWidth();
+		xLocation += Math.min(img.getWidth(), MAX_VIEW_WIDTH);
+	}
+
+	private static JScrollPane scrolled(ImageComponent ic) {
+		JScrollPane pane = new JScrollPane(ic);
+		Dimension size = ic.getPreferredSize();
+		pane.setPreferredSize(new Dimension(Math.min(size.width, MAX_VIEW_WIDTH) + 3, Math.min(size.height, MAX_VIEW_HEIGHT) + 3));
+		return pane;
 	}
 }
 
+// Displays a BinaryImage, through a 1-bit BufferedImage that is kept between repaints
+// At each repaint, only the dirty region of the image (the pixels modified since the previous one) is converted, and only
+// the visible part of the component (the clip) is drawn, so scrolling or zooming a huge image doesn't convert it again
 class ImageComponent extends JComponent {
 
 	private static final long serialVersionUID = -7710437354239150390L;
 	private BinaryImage img;
+	private BufferedImage cache;
+	private double zoom = 1;
 
 	public ImageComponent(BinaryImage img) {
 		this.img = img;
-		setPreferredSize(new Dimension(img.getWidth(), img.getWidth()));
+		setPreferredSize(new Dimension(img.getWidth(), img.getHeight()));
+	}
+
+	// Shows the image scaled by zoom
+	public void setZoom(double zoom) {
+		this.zoom = zoom;
+		setPreferredSize(new Dimension((int) Math.ceil(img.getWidth() * zoom), (int) Math.ceil(img.getHeight() * zoom)));
+		revalidate();
+		repaint();
 	}
 
 	public void paint(Graphics g) {
-		g.drawImage(img.toImage(), 0, 0, this);
+		update();
+
+		Rectangle clip = g.getClipBounds();
+		if (clip == null) {
+			clip = new Rectangle(0, 0, getWidth(), getHeight());
+		}
+
+		// The part of the image under the clip
+		int sx0 = (int) Math.floor(clip.x / zoom);
+		int sy0 = (int) Math.floor(clip.y / zoom);
+		int sx1 = Math.min((int) Math.ceil((clip.x + clip.width) / zoom), img.getWidth());
+		int sy1 = Math.min((int) Math.ceil((clip.y + clip.height) / zoom), img.getHeight());
+		if (sx0 >= sx1 || sy0 >= sy1) {
+			return;
+		}
+		g.drawImage(cache, (int) (sx0 * zoom), (int) (sy0 * zoom), (int) Math.ceil(sx1 * zoom), (int) Math.ceil(sy1 * zoom),
+				sx0, sy0, sx1, sy1, this);
+	}
+
+	// Brings the cached image up to date with the dirty region of img
+	private void update() {
+		Rectangle dirty = img.takeDirty();
+		if (cache == null) {
+			cache = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
+			dirty = new Rectangle(0, 0, img.getWidth(), img.getHeight());
+		}
+		if (dirty == null) {
+			return;
+		}
+
+		img.copyTo(cache, dirty);
 	}
 }
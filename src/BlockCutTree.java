@@ -0,0 +1,263 @@
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+
+
+// The blocks (biconnected components) and cut vertices of an undirected graph, found by one depth-first search (Tarjan),
+// used to reject in linear time the instances that have no hamiltonian path before building any CNF
+// A hamiltonian path can only exist if the graph is connected and its block-cut tree is itself a path: every cut vertex is in
+// exactly 2 blocks and every block has at most 2 cut vertices. The path then starts in one leaf block, goes through the cut
+// vertices in order and ends in the other leaf block, so the endpoints can't be cut vertices, and each cut vertex c is visited
+// right after the whole component of G - c on the side of the start: its position is the size of this component
+// For directed graphs nothing is computed, and every instance is accepted
+public class BlockCutTree {
+
+	private int n;
+	private boolean undirected;
+	private boolean connected;
+
+	// Depth-first search from the vertex 0: discovery time, low point, parent, size of the subtree
+	private int[] disc;
+	private int[] low;
+	private int[] parent;
+	private int[] size;
+
+	// The number of components of G - v, and for a cut vertex the first child whose subtree is one of them
+	private int[] components;
+	private int[] separated;
+
+	// The block of the edge (parent(v), v) for v != 0, and the number of cut vertices of each block
+	private int[] blockOf;
+	private int[] cutNumber;
+	private int blockNumber;
+	private int cutVertexNumber;
+
+	BlockCutTree(Graph g) {
+
+		n = g.vertexNumber();
+		undirected = g.isUndirected();
+		connected = true;
+		if (!undirected || n == 0) {
+			return;
+		}
+
+		disc = new int[n];
+		low = new int[n];
+		parent = new int[n];
+		size = new int[n];
+		components = new int[n];
+		separated = new int[n];
+		int[] order = new int[n];
+		for (int v = 0; v < n; v ++) {
+			disc[v] = -1;
+			separated[v] = -1;
+		}
+
+		// Iterative search, since the boards can be deeper than the call stack
+		int[] stack = new int[n];
+		int[] next = new int[n];
+		int sp = 0;
+		int time = 0;
+		disc[0] = low[0] = time;
+		order[time ++] = 0;
+		parent[0] = -1;
+		size[0] = 1;
+		stack[sp ++] = 0;
+
+		while (sp > 0) {
+			int v = stack[sp - 1];
+			if (next[v] < g.degree(v)) {
+				int w = g.neighbor(v, next[v] ++);
+				if (disc[w] == -1) {
+					parent[w] = v;
+					disc[w] = low[w] = time;
+					order[time ++] = w;
+					size[w] = 1;
+					stack[sp ++] = w;
+				} else if (w != parent[v]) {
+					low[v] = Math.min(low[v], disc[w]);
+				}
+			} else {
+				sp --;
+				int p = parent[v];
+				if (p != -1) {
+					low[p] = Math.min(low[p], low[v]);
+					size[p] += size[v];
+					// The subtree of v is cut from the rest of the graph by p
+					if (low[v] >= disc[p]) {
+						components[p] ++;
+						if (separated[p] == -1) {
+							separated[p] = v;
+						}
+					}
+				}
+			}
+		}
+
+		if (time < n) {
+			connected = false;
+			return;
+		}
+
+		// The root counts its children, the other vertices also have the component of the root
+		for (int v = 1; v < n; v ++) {
+			if (components[v] > 0) {
+				components[v] ++;
+			}
+		}
+
+		// The blocks, in preorder: (parent(w), w) starts a new block when p cuts the subtree of w, and else it is in the block of p
+		blockOf = new int[n];
+		blockNumber = 0;
+		for (int k = 1; k < n; k ++) {
+			int w = order[k];
+			int p = parent[w];
+			blockOf[w] = (low[w] >= disc[p]) ? blockNumber ++ : blockOf[p];
+		}
+
+		// A cut vertex belongs to the block of the edge to its parent and to the blocks that start at it
+		cutNumber = new int[blockNumber];
+		for (int w = 1; w < n; w ++) {
+			if (isCutVertex(w)) {
+				cutNumber[blockOf[w]] ++;
+			}
+			if (low[w] >= disc[parent[w]] && isCutVertex(parent[w])) {
+				cutNumber[blockOf[w]] ++;
+			}
+		}
+		for (int v = 0; v < n; v ++) {
+			if (isCutVertex(v)) {
+				cutVertexNumber ++;
+			}
+		}
+	}
+
+	public boolean isConnected() {
+		return connected;
+	}
+
+	public boolean isCutVertex(int v) {
+		return undirected && connected && components[v] >= 2;
+	}
+
+	public int cutVertexNumber() {
+		return cutVertexNumber;
+	}
+
+	// Returns whether a hamiltonian path from s to t may exist as far as the blocks tell, and prints why not otherwise
+	// s and t are -1 when they are not known
+	public boolean admitsPath(int s, int t) {
+
+		if (!undirected || n == 0) {
+			return true;
+		}
+		if (!connected) {
+			System.out.println("The graph is not connected");
+			return false;
+		}
+		if (n > 1 && s != -1 && s == t) {
+			System.out.println("The path can't start and end at the same vertex");
+			return false;
+		}
+		if (cutVertexNumber == 0) {
+			return true;
+		}
+
+		for (int v = 0; v < n; v ++) {
+			if (components[v] > 2) {
+				System.out.println("Removing the vertex " + v + " leaves " + components[v] + " components");
+				return false;
+			}
+		}
+		for (int b = 0; b < blockNumber; b ++) {
+			if (cutNumber[b] > 2) {
+				System.out.println("A block has " + cutNumber[b] + " cut vertices");
+				return false;
+			}
+		}
+
+		// The endpoints are in the two leaf blocks, but not at their cut vertices
+		for (int e : new int[] {s, t}) {
+			if (e != -1 && isCutVertex(e)) {
+				System.out.println("The endpoint " + e + " is a cut vertex");
+				return false;
+			}
+			if (e != -1 && cutNumber[blockOf(e)] > 1) {
+				System.out.println("The endpoint " + e + " is not in a leaf block");
+				return false;
+			}
+		}
+		if (s != -1 && t != -1 && blockOf(s) == blockOf(t)) {
+			System.out.println("Both endpoints are in the same leaf block");
+			return false;
+		}
+		return true;
+	}
+
+	// The block of a vertex that is not a cut vertex (the root is then in the block of its only child)
+	private int blockOf(int v) {
+		return blockOf[(v == 0) ? separated[0] : v];
+	}
+
+	// The positions that the cut vertex c can take in a hamiltonian path from s to t (s and t can be -1):
+	// one position if an endpoint is known, and the two symmetric ones otherwise
+	// To be used once admitsPath(s, t) holds
+	public int[] positions(int c, int s, int t) {
+		int w = separated[c];
+		int a = size[w];
+		int b = n - 1 - a;
+		if (s != -1) {
+			return new int[] {inSubtree(s, w) ? a : b};
+		}
+		if (t != -1) {
+			return new int[] {inSubtree(t, w) ? b : a};
+		}
+		return (a == b) ? new int[] {a} : new int[] {a, b};
+	}
+
+	private boolean inSubtree(int v, int w) {
+		return disc[v] >= disc[w] && disc[v] < disc[w] + size[w];
+	}
+
+	// The cut vertices in the order in which a hamiltonian path from s to t visits them, when s or t is known
+	public int[] cutVertexOrder(int s, int t) {
+		int[] res = new int[cutVertexNumber];
+		if (s == -1 && t == -1) {
+			throw new IllegalArgumentException("The order of the cut vertices needs an endpoint");
+		}
+		// The positions are distinct, so they sort the cut vertices directly
+		int[] byPosition = new int[n];
+		for (int i = 0; i < n; i ++) {
+			byPosition[i] = -1;
+		}
+		for (int v = 0; v < n; v ++) {
+			if (isCutVertex(v)) {
+				byPosition[positions(v, s, t)[0]] = v;
+			}
+		}
+		int k = 0;
+		for (int i = 0; i < n; i ++) {
+			if (byPosition[i] != -1) {
+				res[k ++] = byPosition[i];
+			}
+		}
+		return res;
+	}
+
+	// Adds the positions of the cut vertices as clauses over x_i,v (i + n*v + 1), a unit clause when the position is forced and
+	// a binary clause otherwise
+	// To be used once admitsPath(s, t) holds
+	public void addClauses(ISolver solver, int s, int t) throws ContradictionException {
+		for (int c = 0; c < n; c ++) {
+			if (isCutVertex(c)) {
+				int[] p = positions(c, s, t);
+				int[] clause = new int[p.length];
+				for (int k = 0; k < p.length; k ++) {
+					clause[k] = p[k] + n*c + 1;
+				}
+				solver.addClause(new VecInt(clause));
+			}
+		}
+	}
+
+}
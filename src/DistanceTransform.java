@@ -0,0 +1,146 @@
+// Exact euclidean distance transform of a BinaryImage: for each pixel, the squared distance to the nearest white pixel,
+// the outside of the image counting as white (so a white pixel is at distance 0, and a black pixel on the border at distance 1)
+// It is computed in linear time by the algorithm of Felzenszwalb and Huttenlocher: a pass on the columns computes the
+// vertical distances, then a pass on each row takes the lower envelope of the parabolas (x - x')^2 + g(x')^2
+// It takes a single int per pixel: the vertical distances are written in place, and each row pass works on O(width) scratch
+// A disk of radius r centered on a pixel is black as soon as the distance of the pixel is greater than r, so the valid
+// centers of the hexagons of a given radius are found with a single comparison per pixel
+public class DistanceTransform {
+
+	private int width;
+	private int height;
+	private int[] squared;		// squared[y*width + x] is the squared distance of (x,y)
+
+	DistanceTransform(BinaryImage im) {
+		width = im.getWidth();
+		height = im.getHeight();
+		squared = new int[width * height];
+
+		long[] raster = im.raster();
+		int wordsPerRow = im.wordsPerRow();
+
+		// 1. The vertical distance of each pixel to the nearest white pixel of its column, or to the top or bottom border, kept
+		// in squared until its row is done
+		for (int x = 0; x < width; x ++) {
+			int word = x >>> 6;
+			long bit = 1L << x;
+			int last = -1;
+			for (int y = 0; y < height; y ++) {
+				if ((raster[y * wordsPerRow + word] & bit) == 0) {
+					last = y;
+				}
+				squared[y * width + x] = y - last;
+			}
+			last = height;
+			for (int y = height - 1; y >= 0; y --) {
+				if ((raster[y * wordsPerRow + word] & bit) == 0) {
+					last = y;
+				}
+				squared[y * width + x] = Math.min(squared[y * width + x], last - y);
+			}
+		}
+
+		// 2. The lower envelope of the parabolas of each row, and the left and right borders: the row is first copied into f,
+		// so that it can be overwritten
+		int[] v = new int[width];
+		double[] z = new double[width + 1];
+		long[] f = new long[width];
+		for (int y = 0; y < height; y ++) {
+			int row = y * width;
+			for (int x = 0; x < width; x ++) {
+				f[x] = (long) squared[row + x] * squared[row + x];
+			}
+
+			int k = 0;
+			v[0] = 0;
+			z[0] = Double.NEGATIVE_INFINITY;
+			z[1] = Double.POSITIVE_INFINITY;
+			for (int q = 1; q < width; q ++) {
+				double s;
+				while (true) {
+					int p = v[k];
+					s = ((f[q] + (long) q*q) - (f[p] + (long) p*p)) / (2.0 * (q - p));
+					if (s <= z[k]) {
+						k --;
+					} else {
+						break;
+					}
+				}
+				k ++;
+				v[k] = q;
+				z[k] = s;
+				z[k + 1] = Double.POSITIVE_INFINITY;
+			}
+
+			k = 0;
+			for (int x = 0; x < width; x ++) {
+				while (z[k + 1] < x) {
+					k ++;
+				}
+				long dx = x - v[k];
+				long best = dx*dx + f[v[k]];
+				long left = (long) (x + 1) * (x + 1);
+				long right = (long) (width - x) * (width - x);
+				squared[row + x] = (int) Math.min(best, Math.min(left, right));
+			}
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	// The squared distance of (x,y) to the nearest white pixel (0 outside the image)
+	public int squaredDistance(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			return 0;
+		}
+		return squared[y * width + x];
+	}
+
+	public double distance(int x, int y) {
+		return Math.sqrt(squaredDistance(x, y));
+	}
+
+	// Test whether the disk of center (x,y) and radius r is black (and within the image)
+	public boolean isDiskBlack(int x, int y, double r) {
+		return squaredDistance(x, y) > r * r;
+	}
+
+	// The erosion of the image by a disk of radius r: the black pixels of the result are the centers of the black disks
+	// of radius r, which are also the valid centers of the hexagons of radius r
+	public BinaryImage erosion(double r) {
+		BinaryImage res = new BinaryImage(width, height);
+		double r2 = r * r;
+		for (int y = 0; y < height; y ++) {
+			int x = 0;
+			while (x < width) {
+				if (squared[y * width + x] > r2) {
+					int x0 = x;
+					while (x < width && squared[y * width + x] > r2) {
+						x ++;
+					}
+					res.fillSpan(y, x0, x, true);
+				} else {
+					x ++;
+				}
+			}
+		}
+		res.changed(0, 0, width, height);
+		return res;
+	}
+
+	// The largest radius of a black disk in the image
+	public double maximumDistance() {
+		int max = 0;
+		for (int s : squared) {
+			max = Math.max(max, s);
+		}
+		return Math.sqrt(max);
+	}
+
+}
@@ -0,0 +1,136 @@
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+
+
+// The part of the SAT encoding that only depends on the graph: "each vertex exactly once", "each index exactly once",
+// and "consecutive vertices are adjacent", with x_i,v represented by i + n*v + 1 as in Graph.solverBuilder
+// It is computed once per graph and stored in flat arenas: the k-th clause is literals[offsets[k]] ... literals[offsets[k + 1] - 1],
+// and similarly for the exactly-one constraints
+// The adjacency clauses are the same at every index up to a shift, so the arena only holds them at the index 0 and loadInto
+// shifts them to the other indices: the template takes O(n^2) memory while the CNF has O(n^3) clauses
+public class EncodingTemplate {
+
+	// Above this, the variables or the clauses of the position encoding can't be counted with an int
+	private static final long MAX_SIZE = Integer.MAX_VALUE;
+
+	private int n;
+
+	private int[] literals;
+	private int[] offsets;
+	private int clauseNumber;		// the adjacency clauses at the index 0
+
+	private int[] exactlyLiterals;
+	private int[] exactlyOffsets;
+	private int exactlyNumber;
+
+	EncodingTemplate(Graph g) {
+
+		n = g.vertexNumber();
+		if ((long) n*n > MAX_SIZE) {
+			throw new IllegalArgumentException("The position encoding can't handle " + n + " vertices");
+		}
+
+		// Exactly-one constraints: one per vertex and one per index, each with n literals
+		exactlyNumber = 2*n;
+		exactlyLiterals = new int[2*n*n];
+		exactlyOffsets = new int[2*n + 1];
+		int e = 0;
+
+		// Each vertex appears exactly once in the path
+		for (int v = 0; v < n; v ++) {
+			exactlyOffsets[v] = e;
+			for (int i = 0; i < n; i ++) {
+				exactlyLiterals[e ++] = i + n*v + 1;
+			}
+		}
+
+		// Each index appears exactly once in the path
+		for (int i = 0; i < n; i ++) {
+			exactlyOffsets[n + i] = e;
+			for (int v = 0; v < n; v ++) {
+				exactlyLiterals[e ++] = i + n*v + 1;
+			}
+		}
+		exactlyOffsets[2*n] = e;
+
+		// Consecutive vertices in the path are adjacent in the graph: one binary clause per index and non-edge (u,v)
+		boolean[] adjacent = new boolean[n];
+		long nonEdges = 0;
+		for (int u = 0; u < n; u ++) {
+			nonEdges += n - distinctNeighbors(g, u, adjacent);
+		}
+		if (Math.max(n - 1, 0) * nonEdges + exactlyNumber > MAX_SIZE) {
+			throw new IllegalArgumentException("The position encoding of " + n + " vertices and " + nonEdges
+					+ " non-edges has too many clauses");
+		}
+
+		clauseNumber = (n > 1) ? (int) nonEdges : 0;
+		literals = new int[2*clauseNumber];
+		offsets = new int[clauseNumber + 1];
+		int c = 0;
+		int l = 0;
+
+		for (int u = 0; u < n && clauseNumber > 0; u ++) {
+			distinctNeighbors(g, u, adjacent);
+			for (int v = 0; v < n; v ++) {
+				if (!adjacent[v]) {
+					offsets[c ++] = l;
+					literals[l ++] = - (n*u + 1);
+					literals[l ++] = - (1 + n*v + 1);
+				}
+			}
+		}
+		offsets[clauseNumber] = l;
+	}
+
+	// Fills adjacent with the neighbors of u and returns how many distinct neighbors u has
+	private static int distinctNeighbors(Graph g, int u, boolean[] adjacent) {
+		java.util.Arrays.fill(adjacent, false);
+		int count = 0;
+		for (int k = 0; k < g.degree(u); k ++) {
+			int v = g.neighbor(u, k);
+			if (!adjacent[v]) {
+				adjacent[v] = true;
+				count ++;
+			}
+		}
+		return count;
+	}
+
+	public int vertexNumber() {
+		return n;
+	}
+
+	public int clauseNumber() {
+		return Math.max(n - 1, 0) * clauseNumber + exactlyNumber;
+	}
+
+	// Adds all the constraints of the template to the solver, the adjacency clauses being shifted from the index 0 to the index i
+	// (the literals are negative, so x_i,v is the literal of x_0,v minus i)
+	// A single VecInt is reused for every constraint, since sat4j copies the literals it is given
+	public void loadInto(ISolver solver) throws ContradictionException {
+
+		solver.newVar(n*n);
+		VecInt clause = new VecInt(n);
+
+		for (int k = 0; k < exactlyNumber; k ++) {
+			clause.clear();
+			for (int l = exactlyOffsets[k]; l < exactlyOffsets[k + 1]; l ++) {
+				clause.push(exactlyLiterals[l]);
+			}
+			solver.addExactly(clause, 1);
+		}
+
+		for (int k = 0; k < clauseNumber; k ++) {
+			for (int i = 0; i < n - 1; i ++) {
+				clause.clear();
+				for (int l = offsets[k]; l < offsets[k + 1]; l ++) {
+					clause.push(literals[l] - i);
+				}
+				solver.addClause(clause);
+			}
+		}
+	}
+
+}
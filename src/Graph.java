@@ -1,6 +1,7 @@
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.stream.Stream;
 
 import org.sat4j.core.VecInt;
 import org.sat4j.minisat.SolverFactory;
@@ -10,20 +11,149 @@ import org.sat4j.specs.TimeoutException;
 
 public class Graph {
 	
-	private ArrayList<ArrayList<Integer>> adjacencyList;
+	// The adjacency lists are stored in compressed rows: the neighbors of v are targets[offsets[v]] ... targets[offsets[v + 1] - 1],
+	// in the order in which they were given
+	private int[] offsets;
+	private int[] targets;
+	
+	// The adjacency lists as ArrayLists, built all at once on the first call to neighbors(v), for the code that iterates over them
+	// Graphs are shared between threads (by RikudoPipeline), so the lists are published through a volatile field once complete
+	private volatile ArrayList<Integer>[] neighborLists;
 	
 	Graph(ArrayList<ArrayList<Integer>> al) {
-		adjacencyList = al;
+		int n = al.size();
+		offsets = new int[n + 1];
+		for (int v = 0; v < n; v ++) {
+			offsets[v + 1] = offsets[v] + al.get(v).size();
+		}
+		targets = new int[offsets[n]];
+		for (int v = 0; v < n; v ++) {
+			int k = offsets[v];
+			for (int u : al.get(v)) {
+				targets[k ++] = u;
+			}
+		}
+	}
+	
+	// A graph given directly by its compressed rows (which are not copied)
+	Graph(int[] offsets, int[] targets) {
+		this.offsets = offsets;
+		this.targets = targets;
+	}
+	
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static ArrayList<Integer>[] newLists(int n) {
+		return (ArrayList<Integer>[]) new ArrayList[n];
 	}
 	
 	public int vertexNumber() {
-		return adjacencyList.size();
+		return offsets.length - 1;
+	}
+	
+	public int degree(int v) {
+		return offsets[v + 1] - offsets[v];
+	}
+	
+	// The k-th neighbor of v, for 0 <= k < degree(v)
+	public int neighbor(int v, int k) {
+		return targets[offsets[v] + k];
+	}
+	
+	// Returns whether (u,v) is an edge
+	public boolean isAdjacent(int u, int v) {
+		for (int k = offsets[u]; k < offsets[u + 1]; k ++) {
+			if (targets[k] == v) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	public ArrayList<Integer> neighbors(int v) {
-		return adjacencyList.get(v);
+		ArrayList<Integer>[] lists = neighborLists;
+		if (lists == null) {
+			lists = buildNeighborLists();
+		}
+		return lists[v];
 	}
 	
+	private synchronized ArrayList<Integer>[] buildNeighborLists() {
+		if (neighborLists == null) {
+			ArrayList<Integer>[] lists = newLists(vertexNumber());
+			for (int v = 0; v < vertexNumber(); v ++) {
+				lists[v] = new ArrayList<Integer>(degree(v));
+				for (int k = offsets[v]; k < offsets[v + 1]; k ++) {
+					lists[v].add(targets[k]);
+				}
+			}
+			neighborLists = lists;
+		}
+		return neighborLists;
+	}
+
+	// Returns whether every edge (u,v) comes with the edge (v,u)
+	public boolean isUndirected() {
+		for (int u = 0; u < vertexNumber(); u ++) {
+			for (int k = offsets[u]; k < offsets[u + 1]; k ++) {
+				if (!isAdjacent(targets[k], u)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	// A hash of the adjacency list that doesn't depend on the order of the neighbors, computed once since graphs are never modified
+	private String fingerprint;
+
+	public String fingerprint() {
+		if (fingerprint == null) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(vertexNumber()).append(':');
+			for (int u = 0; u < vertexNumber(); u ++) {
+				int[] a = Arrays.copyOfRange(targets, offsets[u], offsets[u + 1]);
+				Arrays.sort(a);
+				sb.append(Arrays.toString(a));
+			}
+			fingerprint = RikudoCache.sha256(sb.toString());
+		}
+		return fingerprint;
+	}
+
+	// The clauses that every path encoding on this graph shares, built on first use
+	private EncodingTemplate template;
+	
+	public synchronized EncodingTemplate template() {
+		if (template == null) {
+			template = new EncodingTemplate(this);
+		}
+		return template;
+	}
+
+	// The blocks and cut vertices, used to reject the instances that have no hamiltonian path before encoding them
+	private BlockCutTree blockCutTree;
+	
+	public synchronized BlockCutTree blockCutTree() {
+		if (blockCutTree == null) {
+			blockCutTree = new BlockCutTree(this);
+		}
+		return blockCutTree;
+	}
+
+	// The reduction of the last instance from s to t, since the engines are often run several times on the same endpoints
+	private GraphReduction reduction;
+	private int reductionS;
+	private int reductionT;
+
+	public synchronized GraphReduction reduction(int s, int t) {
+		if (reduction == null || reductionS != s || reductionT != t) {
+			reduction = new GraphReduction(this, s, t);
+			reductionS = s;
+			reductionT = t;
+		}
+		return reduction;
+	}
+
 	
 	
 	
@@ -40,34 +170,24 @@ public class Graph {
 		
 		try {
 			
-			// Each vertex appears exactly once in the path
-			for (int v = 0; v < n; v ++) {
-				int[] a = new int[n];
-				for (int i = 0; i < n; i ++) {
-					a[i] = i + n*v + 1;
-				}
-				solver.addExactly(new VecInt(a), 1);
+			// No hamiltonian path can go through the blocks of the graph from s to t
+			if (!blockCutTree().admitsPath(s, t)) {
+				throw new ContradictionException("No path through the blocks");
 			}
-			
-			// Each index appears exactly once in the path
-			for (int i = 0; i < n; i ++) {
-				int[] a = new int[n];
-				for (int v = 0; v < n; v ++) {
-					a[v] = i + n*v + 1;
-				}
-				solver.addExactly(new VecInt(a), 1);
+			GraphReduction reduction = reduction(s, t);
+			if (!reduction.isFeasible()) {
+				throw new ContradictionException("No path with the forced edges");
 			}
 			
-			// Consecutive vertices in the path are adjacent in the graph
-			for (int i = 0; i < n - 1; i ++) {
-				for (int v = 0; v < n; v ++) {
-					for (int u = 0; u < n; u ++) {
-						if (!neighbors(u).contains(v)) {
-							solver.addClause(new VecInt(new int[] {- (i + n*u + 1), - (i + 1 + n*v + 1)}));
-						}
-					}
-				}
-			}
+			// Each vertex and each index appears exactly once, and consecutive vertices are adjacent in the graph without the
+			// deleted edges, whose template is cached with the reduction
+			reduction.graph().template().loadInto(solver);
+			
+			// The cut vertices have forced positions
+			blockCutTree().addClauses(solver, s, t);
+			
+			// The forced edges are used
+			reduction.addClauses(solver);
 			
 			// The first vertex is s
 			solver.addClause(new VecInt(new int[] {0 + n*s + 1}));
@@ -181,7 +301,7 @@ public class Graph {
 			for (int i = 0; i < n - 1; i ++) {
 				for (int v = 0; v < n; v ++) {
 					for (int u = 0; u < n; u ++) {
-						if (!neighbors(u).contains(v)) {
+						if (!isAdjacent(u, v)) {
 							solver.addClause(new VecInt(new int[] {- (i + n*u + 1), - (i + 1 + n*v + 1)}));
 						}
 					}
@@ -264,8 +384,11 @@ public class Graph {
 		ArrayList<Integer> path = new ArrayList<Integer>();
 		path.add(s);
 		
-		// exploring the graph with the auxiliary method
-		exploring(s,t, explored, path, n);
+		// exploring the graph without the edges that no path can use, with the auxiliary method
+		GraphReduction reduction = reduction(s, t);
+		if (reduction.isFeasible()) {
+			reduction.graph().exploring(s,t, explored, path, n);
+		}
 		
 		//result
 		if (path.size() == n) {System.out.println("Congrats you have found a hamiltonian path"); System.out.println(path.toString());return path;}
@@ -372,6 +495,58 @@ public class Graph {
 
 	
 	
+	// Remark 2 : variation 3 : lazy enumeration of the hamiltonian paths, so that we only pay for the ones we use
+	// e.g. solutions(s, t).limit(2).count() tells whether there is a unique path
+	
+	public Stream<int[]> solutions(int s, int t) {
+		GraphReduction reduction = reduction(s, t);
+		if (!reduction.isFeasible()) {
+			return Stream.empty();
+		}
+		return new BacktrackingSolutionIterator(reduction.graph(), s, t, null, reduction.forcedEdges()).stream();
+	}
+	
+	public Stream<int[]> solutionsSAT(int s, int t) {
+		return new SATSolutionIterator(solverBuilder(s, t), vertexNumber()).stream();
+	}
+	
+	// The same with the successor encoding: one variable per directed edge instead of n*n, the cycles being cut lazily
+	// Only for small or densely labelled boards: it is much slower than solutionsSAT on large ones (see SuccessorEncoding)
+	// The search of each solution is given up after timeout seconds, and the stream then throws an IllegalStateException
+	public Stream<int[]> solutionsSuccessor(int s, int t, int timeout) {
+		return new SuccessorEncoding(this, s, t, timeout).stream();
+	}
+	
+	public Stream<int[]> solutionsSuccessor(int s, int t) {
+		return solutionsSuccessor(s, t, SuccessorEncoding.DEFAULT_TIMEOUT);
+	}
+	
+	// Same restrictions as solutionsSuccessor
+	public int[] hamiltonianPathSuccessor(int s, int t, int timeout) {
+		SuccessorEncoding encoding = new SuccessorEncoding(this, s, t, timeout);
+		boolean found;
+		try {
+			found = encoding.hasNext();
+		} catch (IllegalStateException e) {
+			System.out.println("Timeout, sorry!");
+			return new int[] {-1};
+		}
+		if (found) {
+			int[] path = encoding.next();
+			System.out.println("Satisfiable problem! (" + encoding.variableNumber() + " variables, " + encoding.cutNumber() + " cuts)");
+			System.out.println(Arrays.toString(path));
+			return path;
+		}
+		System.out.println("Unsatisfiable problem!");
+		return new int[] {-1};
+	}
+	
+	public int[] hamiltonianPathSuccessor(int s, int t) {
+		return hamiltonianPathSuccessor(s, t, SuccessorEncoding.DEFAULT_TIMEOUT);
+	}
+	
+	
+	
 	// Useful graphs
 	
 	
@@ -438,19 +613,19 @@ public class Graph {
 		
 		/*
 		Graph cg = completeGraph(100);
-		System.out.println(cg.adjacencyList);
+		System.out.println(cg.neighbors(0));
 		cg.hamiltonianPath(5, 8);
 		cg.hamiltonianBacktracking(7,6);
 
 
 		Graph cyg = cycleGraph(100);
-		System.out.println(cyg.adjacencyList);
+		System.out.println(cyg.neighbors(0));
 		cyg.hamiltonianPath(7, 6);
 		cyg.hamiltonianBacktracking(7, 6);
 		
 		
 		Graph gg1 = gridGraph(4);
-		System.out.println(gg1.adjacencyList);
+		System.out.println(gg1.neighbors(0));
 		gg1.hamiltonianBacktracking(0,15);
 		gg1.hamiltonianBacktracking_counting(1,15);
 		
@@ -0,0 +1,350 @@
+import java.util.ArrayList;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+
+
+// Preprocessing of a hamiltonian path instance: finds the edges that every solution uses (forced) and the ones that no solution
+// can use (deleted), with a worklist over the vertices:
+// - the diamonds, and the edges between consecutive labels of the partial mapping, are forced
+// - a vertex has 2 edges in the path, or 1 if it is an endpoint: once it has this many forced edges its other edges are
+//   deleted, and once it has only this many edges left they are all forced
+// - the forced edges form chains; an edge that would close a chain into a cycle is deleted, and so is an edge that would
+//   join the chain of s to the chain of t before every vertex is on them
+// The engines then run on the graph without the deleted edges, with the forced edges as extra diamonds, and the solutions need
+// no translation since the vertices are kept. The chains are the "super-edges" of the instance: the vertices inside them have
+// both their path edges known, and the SAT solver places them by unit propagation from the ends of the chain
+public class GraphReduction {
+
+	private Graph g;
+	private int n;
+	private int s;
+	private int t;
+	private boolean feasible = true;
+
+	// The edges of v are g.neighbor(v, k) for 0 <= k < g.degree(v), and edge[offsets[v] + k] is their state
+	private static final byte FREE = 0, FORCED = 1, DELETED = 2;
+	private int[] offsets;
+	private byte[] edge;
+	private int[] remaining;
+	private int[] forcedNumber;
+	private int forcedEdgeNumber;
+	private int deletedEdgeNumber;
+
+	// The forced edges form chains: for the two ends of a chain, otherEnd is the other end and chainSize its number of vertices
+	private int[] otherEnd;
+	private int[] chainSize;
+
+	private int[] worklist;
+	private boolean[] queued;
+	private int queueSize;
+
+	private ArrayList<ArrayList<Integer>> diamonds;
+
+	// The instance from s to t (each can be -1 if it is not known), with diamonds and a partial mapping (both can be null)
+	GraphReduction(Graph g, int s, int t, ArrayList<ArrayList<Integer>> diamonds, int[] partialMap) {
+
+		this.g = g;
+		this.n = g.vertexNumber();
+		this.s = s;
+		this.t = t;
+		this.diamonds = diamonds;
+
+		offsets = new int[n + 1];
+		for (int v = 0; v < n; v ++) {
+			offsets[v + 1] = offsets[v] + g.degree(v);
+		}
+		edge = new byte[offsets[n]];
+		remaining = new int[n];
+		forcedNumber = new int[n];
+		otherEnd = new int[n];
+		chainSize = new int[n];
+		worklist = new int[n];
+		queued = new boolean[n];
+		for (int v = 0; v < n; v ++) {
+			remaining[v] = g.degree(v);
+			otherEnd[v] = v;
+			chainSize[v] = 1;
+		}
+
+		// The rules below only hold for undirected graphs, and a single vertex is a path already
+		if (n < 2 || !g.isUndirected()) {
+			return;
+		}
+		if (s != -1 && s == t) {
+			feasible = false;
+			return;
+		}
+
+		if (diamonds != null) {
+			for (int u = 0; u < n && feasible; u ++) {
+				for (int v : diamonds.get(u)) {
+					force(u, v);
+				}
+			}
+		}
+		if (partialMap != null) {
+			for (int i = 0; i + 1 < n && feasible; i ++) {
+				if (partialMap[i] != -1 && partialMap[i + 1] != -1) {
+					force(partialMap[i], partialMap[i + 1]);
+				}
+			}
+		}
+
+		// An edge from s to t would be the whole path
+		if (s != -1 && t != -1 && n > 2 && feasible && slot(s, t) != -1) {
+			delete(s, t);
+		}
+
+		for (int v = 0; v < n; v ++) {
+			enqueue(v);
+		}
+		while (queueSize > 0 && feasible) {
+			int v = worklist[-- queueSize];
+			queued[v] = false;
+			propagate(v);
+		}
+	}
+
+	GraphReduction(Graph g, int s, int t) {
+		this(g, s, t, null, null);
+	}
+
+	// The number of path edges at v: at most maxEdges, at least minEdges
+	private int maxEdges(int v) {
+		return (v == s || v == t) ? 1 : 2;
+	}
+
+	private int minEdges(int v) {
+		return (v == s || v == t || s == -1 || t == -1) ? 1 : 2;
+	}
+
+	private void propagate(int v) {
+		if (forcedNumber[v] > maxEdges(v) || remaining[v] < minEdges(v)) {
+			feasible = false;
+			return;
+		}
+		if (forcedNumber[v] == maxEdges(v)) {
+			for (int k = 0; k < g.degree(v); k ++) {
+				if (edge[offsets[v] + k] == FREE) {
+					delete(v, g.neighbor(v, k));
+				}
+			}
+		} else if (remaining[v] == minEdges(v)) {
+			for (int k = 0; k < g.degree(v) && feasible; k ++) {
+				if (edge[offsets[v] + k] == FREE) {
+					force(v, g.neighbor(v, k));
+				}
+			}
+		}
+	}
+
+	private void enqueue(int v) {
+		if (!queued[v]) {
+			queued[v] = true;
+			worklist[queueSize ++] = v;
+		}
+	}
+
+	// The index of the edge (u, v) in edge, or -1 if it isn't an edge
+	private int slot(int u, int v) {
+		for (int k = 0; k < g.degree(u); k ++) {
+			if (g.neighbor(u, k) == v) {
+				return offsets[u] + k;
+			}
+		}
+		return -1;
+	}
+
+	private void delete(int u, int v) {
+		int a = slot(u, v);
+		if (edge[a] != FREE) {
+			return;
+		}
+		edge[a] = DELETED;
+		edge[slot(v, u)] = DELETED;
+		remaining[u] --;
+		remaining[v] --;
+		deletedEdgeNumber ++;
+		enqueue(u);
+		enqueue(v);
+	}
+
+	private void force(int u, int v) {
+		int a = slot(u, v);
+		if (a == -1 || edge[a] == DELETED) {
+			feasible = false;
+			return;
+		}
+		if (edge[a] == FORCED) {
+			return;
+		}
+		// u and v must be the ends of two different chains
+		if (forcedNumber[u] == 2 || forcedNumber[v] == 2 || otherEnd[u] == v) {
+			feasible = false;
+			return;
+		}
+		edge[a] = FORCED;
+		edge[slot(v, u)] = FORCED;
+		forcedNumber[u] ++;
+		forcedNumber[v] ++;
+		forcedEdgeNumber ++;
+
+		int x = otherEnd[u];
+		int y = otherEnd[v];
+		otherEnd[x] = y;
+		otherEnd[y] = x;
+		chainSize[x] = chainSize[y] = chainSize[u] + chainSize[v];
+		enqueue(u);
+		enqueue(v);
+
+		// The edges that would close the new chain too early
+		for (int e : new int[] {x, y}) {
+			for (int k = 0; k < g.degree(e); k ++) {
+				if (edge[offsets[e] + k] == FREE && closes(e, g.neighbor(e, k))) {
+					delete(e, g.neighbor(e, k));
+				}
+			}
+		}
+	}
+
+	// Whether the edge (x, y) between two ends of chains would make a cycle, or a path from s to t that misses some vertices
+	// (y may also be inside a chain, or an endpoint that has its edge: then the edge can't be used anyway)
+	private boolean closes(int x, int y) {
+		if (forcedNumber[y] >= maxEdges(y) || otherEnd[x] == y) {
+			return true;
+		}
+		boolean endsAtS = (s != -1) && (otherEnd[x] == s || otherEnd[y] == s || x == s || y == s);
+		boolean endsAtT = (t != -1) && (otherEnd[x] == t || otherEnd[y] == t || x == t || y == t);
+		return endsAtS && endsAtT && chainSize[x] + chainSize[y] < n;
+	}
+
+	public boolean isFeasible() {
+		return feasible;
+	}
+
+	public int forcedEdgeNumber() {
+		return forcedEdgeNumber;
+	}
+
+	public int deletedEdgeNumber() {
+		return deletedEdgeNumber;
+	}
+
+	public boolean isForced(int u, int v) {
+		int a = slot(u, v);
+		return a != -1 && edge[a] == FORCED;
+	}
+
+	// The graph without the deleted edges, with the neighbors in the same order
+	private Graph reduced;
+
+	public synchronized Graph graph() {
+		if (deletedEdgeNumber == 0) {
+			return g;
+		}
+		if (reduced != null) {
+			return reduced;
+		}
+		int[] reducedOffsets = new int[n + 1];
+		int[] targets = new int[offsets[n] - 2*deletedEdgeNumber];
+		int e = 0;
+		for (int v = 0; v < n; v ++) {
+			for (int k = 0; k < g.degree(v); k ++) {
+				if (edge[offsets[v] + k] != DELETED) {
+					targets[e ++] = g.neighbor(v, k);
+				}
+			}
+			reducedOffsets[v + 1] = e;
+		}
+		reduced = new Graph(reducedOffsets, targets);
+		return reduced;
+	}
+
+	// The forced edges, in the format of the diamonds of a Rikudo (both directions are listed)
+	public ArrayList<ArrayList<Integer>> forcedEdges() {
+		ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+		for (int v = 0; v < n; v ++) {
+			ArrayList<Integer> l = new ArrayList<Integer>();
+			for (int k = 0; k < g.degree(v); k ++) {
+				if (edge[offsets[v] + k] == FORCED) {
+					l.add(g.neighbor(v, k));
+				}
+			}
+			res.add(l);
+		}
+		return res;
+	}
+
+	// The maximal chains of forced edges, from one end to the other
+	public ArrayList<ArrayList<Integer>> chains() {
+		ArrayList<ArrayList<Integer>> res = new ArrayList<ArrayList<Integer>>();
+		for (int v = 0; v < n; v ++) {
+			if (forcedNumber[v] == 1 && otherEnd[v] > v) {
+				ArrayList<Integer> chain = new ArrayList<Integer>();
+				int prev = -1;
+				int u = v;
+				while (u != -1) {
+					chain.add(u);
+					int next = -1;
+					for (int k = 0; k < g.degree(u); k ++) {
+						int w = g.neighbor(u, k);
+						if (w != prev && edge[offsets[u] + k] == FORCED) {
+							next = w;
+						}
+					}
+					prev = u;
+					u = next;
+				}
+				res.add(chain);
+			}
+		}
+		return res;
+	}
+
+	// The number of vertices inside the chains, whose two path edges are known
+	public int innerVertexNumber() {
+		int res = 0;
+		for (int v = 0; v < n; v ++) {
+			if (forcedNumber[v] == 2) {
+				res ++;
+			}
+		}
+		return res;
+	}
+
+	// Adds the forced edges to a solver over x_i,v (i + n*v + 1): their vertices are consecutive (the edges that are already
+	// diamonds are skipped)
+	// The deleted edges have no clauses here: the solver is built on the template of graph(), where they aren't edges anymore
+	public void addClauses(ISolver solver) throws ContradictionException {
+		for (int u = 0; u < n; u ++) {
+			for (int k = 0; k < g.degree(u); k ++) {
+				int v = g.neighbor(u, k);
+				if (edge[offsets[u] + k] == FORCED && u < v && !isDiamond(u, v)) {
+					addForcedEdge(solver, u, v);
+					addForcedEdge(solver, v, u);
+				}
+			}
+		}
+	}
+
+	private boolean isDiamond(int u, int v) {
+		return diamonds != null && (diamonds.get(u).contains(v) || diamonds.get(v).contains(u));
+	}
+
+	// If x_i,u then x_{i - 1},v or x_{i + 1},v, as for the diamonds in Rikudo.solverBuilder
+	private void addForcedEdge(ISolver solver, int u, int v) throws ContradictionException {
+		for (int i = 1; i <= n - 2; i ++) {
+			solver.addClause(new VecInt(new int[] {- (i + n*u + 1), i - 1 + n*v + 1, i + 1 + n*v + 1}));
+		}
+		solver.addClause(new VecInt(new int[] {- (0 + n*u + 1), 1 + n*v + 1}));
+		solver.addClause(new VecInt(new int[] {- (n - 1 + n*u + 1), n - 2 + n*v + 1}));
+	}
+
+	public String toString() {
+		return "Reduction: " + forcedEdgeNumber + " forced edges, " + deletedEdgeNumber + " deleted edges, "
+				+ innerVertexNumber() + " vertices inside chains";
+	}
+
+}
@@ -1,4 +1,9 @@
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 
 
@@ -7,6 +12,15 @@ public class GraphicRikudo {
 	private Rikudo rikudo;
 	private ArrayList<Point> coordinates;
 	private BinaryImage im;
+	private Graph graph;
+	private double d;
+	
+	// The size of the board, and the radius and width of the hexagons and the size of the diamonds
+	private int width;
+	private int height;
+	private int r;
+	private int w;
+	private int c;
 	
 	// This constructor builds a GraphicRikudo that fills the black area of the image with hexagons which centers are separated by a distance d
 	// nbCalls specifies the number of calls to explore in greatest path
@@ -22,51 +36,209 @@ public class GraphicRikudo {
 		System.out.println("Path search done");
 		System.out.println("Path length: " + coordinates.size());
 		System.out.println();
-
 		
+		build(im1, d);
+	}
+	
+	// This constructor fills the black area with a path built by BinaryImage.longPath instead of an exhaustive search,
+	// which covers most of the black area of large images much faster (see LongPathBuilder)
+	GraphicRikudo(BinaryImage im1, int xs, int ys, double d) {
+		
+		System.out.println("Initiating path construction...");
+		coordinates = im1.longPath(xs, ys, d);
+		System.out.println("Path construction done");
+		System.out.println("Path length: " + coordinates.size());
+		System.out.println();
+		
+		build(im1, d);
+	}
+	
+	// This constructor searches the path for timeBudgetMillis at most, publishing each improvement to listener (which may be null)
+	GraphicRikudo(BinaryImage im1, int xs, int ys, double d, long timeBudgetMillis, PathListener listener) {
+		
+		System.out.println("Initiating path search for " + timeBudgetMillis + " ms...");
+		coordinates = im1.greatestPathAnytime(xs, ys, d, timeBudgetMillis, listener);
+		System.out.println("Path search done");
+		System.out.println("Path length: " + coordinates.size());
+		System.out.println();
+		
+		build(im1, d);
+	}
+	
+	// This constructor doesn't need a starting point: the path is searched from many of them in parallel on the given number of threads
+	GraphicRikudo(BinaryImage im1, double d, int threads, long timeBudgetMillis) {
+		
+		System.out.println("Initiating parallel path search on " + threads + " threads for " + timeBudgetMillis + " ms...");
+		coordinates = im1.greatestPathParallel(d, threads, timeBudgetMillis);
+		System.out.println("Path search done");
+		System.out.println("Path length: " + coordinates.size());
+		System.out.println();
+		
+		build(im1, d);
+	}
+	
+	// This constructor takes a path that was already found, and doesn't build anything: the stages buildGraph, generate and
+	// getImage are then called one after another (see RikudoPipeline, that runs them on different threads)
+	GraphicRikudo(ArrayList<Point> coordinates, int width, int height, double d) {
+		this.coordinates = coordinates;
+		setDimensions(width, height, d);
+	}
+	
+	// Builds the graph and the rikudo from the path in coordinates
+	// The image is only rasterized when it is needed (see getImage), so that exportSVG doesn't pay for it
+	private void build(BinaryImage im1, double d) {
+		setDimensions(im1.getWidth(), im1.getHeight(), d);
+		buildGraph();
+		generate();
+	}
+	
+	private void setDimensions(int width, int height, double d) {
+		this.width = width;
+		this.height = height;
+		this.d = d;
+		w = (int) Math.ceil(d/40);
+		r = (int) Math.ceil(d/2) + w;
+		c = (int) Math.ceil(r/6);
+	}
+	
+	// Stage 1: the graph of the cells of the path
+	public Graph buildGraph() {
 		System.out.println("Initiating graph construction...");
-		int n = coordinates.size();
+		graph = adjacency(d);
+		System.out.println("Graph construction done");
+		System.out.println();
+		return graph;
+	}
+	
+	// Stage 2: the rikudo, whose solution is the path
+	public Rikudo generate() {
+		return generate(null);
+	}
+	
+	// The same with a SegmentedGenerator, or with Rikudo.createRikudoPath if generator is null
+	// Segmented generation is only used when asked for: it still ends with whole-board solves (see SegmentedGenerator)
+	public Rikudo generate(SegmentedGenerator generator) {
 		
-		ArrayList<ArrayList<Integer>> adjacencyList = new ArrayList<ArrayList<Integer>>();
+		int n = coordinates.size();
 		ArrayList<Integer> path = new ArrayList<Integer>();
-
 		for (int i = 0; i < n; i++) {
-			adjacencyList.add(new ArrayList<Integer>());
 			path.add(i);
 		}
 		
-		for (int i = 0; i < n-1; i++) {
-			for (int j = i+1; j < n; j++) {
-				Point p1 = coordinates.get(i);
-				Point p2 = coordinates.get(j);
-				if (Point.distance(p1,p2) - d < 0.1d) {
-					adjacencyList.get(i).add(j);
-					adjacencyList.get(j).add(i);
-				}
-			}
-		}
-			
-		Graph g = new Graph(adjacencyList);
-		System.out.println("Graph construction done");
-		System.out.println();
-
-
-				
 		System.out.println("Initiating rikudo construction...");
-		rikudo = Rikudo.createRikudoPath(g,path);
+		if (generator != null) {
+			rikudo = generator.generate(graph, path);
+		} else {
+			rikudo = Rikudo.createRikudoPath(graph, path);
+		}
 		System.out.println("Rikudo construction done");
 		System.out.println();
+		return rikudo;
+	}
+	
+	public Rikudo getRikudo() {
+		return rikudo;
+	}
+	
+	public ArrayList<Point> getCoordinates() {
+		return coordinates;
+	}
+	
+	// The graph of the cells whose centers are at distance less than d + 0.1, in O(n)
+	// The centers are hashed into a grid of buckets of side d + 0.1 (sorted by bucket with a counting sort), so that the neighbors
+	// of a cell are in the 3 x 3 buckets around its own, and the graph is written directly in compressed rows
+	// The neighbors of each cell are sorted, as they were with the comparison of every pair of cells
+	private Graph adjacency(double d) {
+		
+		int n = coordinates.size();
+		double side = d + 0.1;
+		
+		double xMin = Double.POSITIVE_INFINITY;
+		double yMin = Double.POSITIVE_INFINITY;
+		double xMax = Double.NEGATIVE_INFINITY;
+		double yMax = Double.NEGATIVE_INFINITY;
+		for (Point p : coordinates) {
+			xMin = Math.min(xMin, p.x);
+			yMin = Math.min(yMin, p.y);
+			xMax = Math.max(xMax, p.x);
+			yMax = Math.max(yMax, p.y);
+		}
+		int cols = (n == 0) ? 0 : (int) ((xMax - xMin) / side) + 1;
+		int rows = (n == 0) ? 0 : (int) ((yMax - yMin) / side) + 1;
 		
+		// The cells of the bucket b are order[start[b]] ... order[start[b + 1] - 1]
+		int[] bucket = new int[n];
+		int[] start = new int[cols * rows + 1];
+		for (int i = 0; i < n; i++) {
+			Point p = coordinates.get(i);
+			bucket[i] = (int) ((p.y - yMin) / side) * cols + (int) ((p.x - xMin) / side);
+			start[bucket[i] + 1] ++;
+		}
+		for (int b = 0; b < cols * rows; b++) {
+			start[b + 1] += start[b];
+		}
+		int[] order = new int[n];
+		int[] fill = java.util.Arrays.copyOf(start, cols * rows);
+		for (int i = 0; i < n; i++) {
+			order[fill[bucket[i]] ++] = i;
+		}
+		
+		int[] offsets = new int[n + 1];
+		int[] targets = new int[6*n];
+		int[] row = new int[16];
+		
+		for (int i = 0; i < n; i++) {
+			Point p = coordinates.get(i);
+			int bx = bucket[i] % cols;
+			int by = bucket[i] / cols;
+			int degree = 0;
+			
+			for (int y = Math.max(by - 1, 0); y <= Math.min(by + 1, rows - 1); y++) {
+				for (int x = Math.max(bx - 1, 0); x <= Math.min(bx + 1, cols - 1); x++) {
+					int b = y * cols + x;
+					for (int k = start[b]; k < start[b + 1]; k++) {
+						int j = order[k];
+						if (j != i && Point.distance(p, coordinates.get(j)) - d < 0.1d) {
+							if (degree == row.length) {
+								row = java.util.Arrays.copyOf(row, 2*degree);
+							}
+							row[degree ++] = j;
+						}
+					}
+				}
+			}
+			
+			java.util.Arrays.sort(row, 0, degree);
+			if (offsets[i] + degree > targets.length) {
+				targets = java.util.Arrays.copyOf(targets, Math.max(2*targets.length, offsets[i] + degree));
+			}
+			System.arraycopy(row, 0, targets, offsets[i], degree);
+			offsets[i + 1] = offsets[i] + degree;
+		}
+		
+		return new Graph(offsets, java.util.Arrays.copyOf(targets, offsets[n]));
+	}
+	
+	// Stage 3: the image of the board, rasterized at the first call
+	public synchronized BinaryImage getImage() {
+		if (im == null) {
+			render();
+		}
+		return im;
+	}
+	
+	private void render() {
 		
 		System.out.println("Initiating image construction...");
-		im = new BinaryImage(im1.getWidth(),im1.getHeight());
+		im = new BinaryImage(width, height);
+		int n = coordinates.size();
 		
-		int w = (int) Math.ceil(d/40);
-		int r = (int) Math.ceil(d/2) + w;
-		int c = (int) Math.ceil(r/6);
+		// The shapes are drawn with cached stamps, so each of them is only rasterized once, and the stamps are blitted
+		// by bands of the image in parallel
+		TileRenderer renderer = new TileRenderer();
 		
 		for (Point p : coordinates) {
-			im.drawHexagon(p.xint(),p.yint(), r, w);
+			renderer.addHexagon(p.xint(),p.yint(), r, w);
 		}
 		
 		
@@ -75,32 +247,142 @@ public class GraphicRikudo {
 		for (int i = 0; i < n; i++) {
 			if (lambda[i] != -1) {
 				Point p = coordinates.get(i);
-				im.drawInt(i, p.xint(), p.yint(), r, r);
+				renderer.addInt(i, p.xint(), p.yint(), r, r);
 			}
 		}
 		
 		ArrayList<ArrayList<Integer>> E = rikudo.diamonds;
 		
 		for (int u = 0; u < n-1; u++) {
-			for (int v = u+1; v < n; v++ ) {
-				if (E.get(u).contains(v)) {
+			for (int v : E.get(u)) {
+				if (v > u) {
 					Point p1 = coordinates.get(u);
 					Point p2 = coordinates.get(v);
 					double x = (p1.x + p2.x)/2;
 					double y = (p1.y + p2.y)/2;
-					im.drawDiamond((int)x,(int)y,c, c);
+					renderer.addDiamond((int)x,(int)y,c, c);
 					}
 			}
 		}
+		
+		renderer.render(im);
 		System.out.println("Image construction done");
 		System.out.println();
 		
 	
 	}
+	
+	
+	// Writes the board as an SVG file, without rasterizing it: the hexagon and the diamond are defined once and used at each
+	// position, and the labels are texts, so the file is written in O(cells) while only one line is in memory at a time
+	// The shapes are the same as in the image (the lines of width w of the image are strokes of width 2w)
+	public void exportSVG(String filename) throws IOException {
+		
+		try (BufferedWriter out = Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8)) {
+			
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" width=\"" + width
+					+ "\" height=\"" + height + "\" viewBox=\"0 0 " + width + " " + height + "\">\n");
+			out.write("<rect width=\"100%\" height=\"100%\" fill=\"white\"/>\n");
+			
+			// The vertices of the hexagon and of the diamond around (0,0), as in BinaryImage.drawHexagon and drawDiamond
+			int h = (int) ((Math.sqrt(3)*r)/2);
+			out.write("<defs>\n");
+			out.write("<polygon id=\"h\" points=\"" + r + ",0 " + (r/2) + "," + h + " " + (-r/2) + "," + h + " " + (-r) + ",0 "
+					+ (-r/2) + "," + (-h) + " " + (r/2) + "," + (-h) + "\" fill=\"none\" stroke=\"black\" stroke-width=\"" + (2*w)
+					+ "\" stroke-linejoin=\"round\"/>\n");
+			out.write("<polygon id=\"d\" points=\"" + c + ",0 0," + c + " " + (-c) + ",0 0," + (-c) + "\" fill=\"none\" stroke=\"black\" stroke-width=\""
+					+ (2*c) + "\" stroke-linejoin=\"round\"/>\n");
+			out.write("</defs>\n");
+			
+			out.write("<g>\n");
+			for (Point p : coordinates) {
+				out.write("<use xlink:href=\"#h\" x=\"" + p.xint() + "\" y=\"" + p.yint() + "\"/>\n");
+			}
+			out.write("</g>\n");
+			
+			int[] lambda = rikudo.partialMap;
+			out.write("<g font-family=\"sans-serif\" font-size=\"" + r + "\" text-anchor=\"middle\" dominant-baseline=\"central\">\n");
+			for (int i = 0; i < lambda.length; i++) {
+				if (lambda[i] != -1) {
+					Point p = coordinates.get(i);
+					out.write("<text x=\"" + p.xint() + "\" y=\"" + p.yint() + "\">" + i + "</text>\n");
+				}
+			}
+			out.write("</g>\n");
+			
+			ArrayList<ArrayList<Integer>> E = rikudo.diamonds;
+			out.write("<g>\n");
+			for (int u = 0; u < E.size(); u++) {
+				for (int v : E.get(u)) {
+					if (v > u) {
+						Point p1 = coordinates.get(u);
+						Point p2 = coordinates.get(v);
+						int x = (int) ((p1.x + p2.x)/2);
+						int y = (int) ((p1.y + p2.y)/2);
+						out.write("<use xlink:href=\"#d\" x=\"" + x + "\" y=\"" + y + "\"/>\n");
+					}
+				}
+			}
+			out.write("</g>\n");
+			
+			out.write("</svg>\n");
+		}
+	}
 
 	
+	// Writes the puzzle as a text file: the number of cells, the center of each cell, then the clues of the partial mapping
+	// ("clue i v": the cell v is the i-th of the path) and the diamonds ("diamond u v")
+	public void exportPuzzle(String filename) throws IOException {
+		
+		try (BufferedWriter out = Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8)) {
+			
+			int n = coordinates.size();
+			out.write("rikudo " + n + " " + width + " " + height + " " + d + "\n");
+			for (Point p : coordinates) {
+				out.write("cell " + p.x + " " + p.y + "\n");
+			}
+			
+			int[] lambda = rikudo.partialMap;
+			for (int i = 0; i < lambda.length; i++) {
+				if (lambda[i] != -1) {
+					out.write("clue " + i + " " + lambda[i] + "\n");
+				}
+			}
+			
+			ArrayList<ArrayList<Integer>> E = rikudo.diamonds;
+			for (int u = 0; u < E.size(); u++) {
+				for (int v : E.get(u)) {
+					if (v > u) {
+						out.write("diamond " + u + " " + v + "\n");
+					}
+				}
+			}
+		}
+	}
+	
+	// The number of clues and of diamonds of the puzzle
+	public int clueNumber() {
+		int count = 0;
+		for (int v : rikudo.partialMap) {
+			if (v != -1) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	public int diamondNumber() {
+		int count = 0;
+		for (ArrayList<Integer> l : rikudo.diamonds) {
+			count += l.size();
+		}
+		return count / 2;
+	}
+	
+	
 	public void showRikudo() {
-		new ImageViewer(im, "Rikudo");
+		new ImageViewer(getImage(), "Rikudo");
 	}
 	
 	
@@ -0,0 +1,175 @@
+import java.util.ArrayList;
+
+
+// The hexagonal lattice of the possible hexagon centers of a BinaryImage, for hexagons separated by a distance d
+// A cell has integer axial coordinates (q,r), and its center is (xs + q*sqrt(3)*d/2, ys + r*d + q*d/2), so that (0,0) is (xs,ys)
+// and the six neighbors of BinaryImage.next are the cells (q,r) + (1,-1), (0,-1), (-1,0), (-1,1), (0,1), (1,0)
+// Cells are numbered by a single int index, and the cells whose hexagon fits in the black area are stored in a bitset
+public class HexLattice {
+
+	static final double SQRT3 = Math.sqrt(3);
+
+	// The (dq, dr) of each direction of BinaryImage.next, with a dummy direction 0
+	private static final int[] DQ = new int[] {0, 1, 0, -1, -1, 0, 1};
+	private static final int[] DR = new int[] {0, -1, -1, 0, 1, 1, 0};
+
+	private double xs;
+	private double ys;
+	private double d;
+
+	// The lattice is the rectangle [qMin, qMin + cols) x [rMin, rMin + rows), and cell (q,r) has index (q - qMin)*rows + (r - rMin)
+	// There is at least one non usable cell all around, so the neighbors of a usable cell always have a valid index
+	private int qMin;
+	private int rMin;
+	private int cols;
+	private int rows;
+
+	private long[] usable;
+	private int usableNumber;
+	private int[] offsets;			// offsets[i] is the difference between the index of the i-th neighbor and the index of the cell
+
+	// Decides whether the cell of center (x,y) is usable
+	public interface CenterTest {
+		boolean isUsable(int x, int y);
+	}
+
+	// A cell is usable if its center is black and at distance at least d from the border, as in BinaryImage.isBlackGeneralized
+	HexLattice(BinaryImage im, int xs, int ys, double d) {
+		this(im, xs, ys, d, (x, y) -> im.isBlackGeneralized(x, y, (int) d));
+	}
+
+	// The test of the cells whose whole hexagon (of radius d/2) is black, with BinaryImage.isHexagonBlack: the distance transform
+	// is computed once, and most cells then cost a single read
+	static CenterTest hexagonTest(BinaryImage im, double d) {
+		DistanceTransform dt = im.distanceTransform();
+		return (x, y) -> im.isHexagonBlack(dt, x, y, d / 2);
+	}
+
+	HexLattice(BinaryImage im, int xs, int ys, double d, CenterTest test) {
+
+		this.xs = xs;
+		this.ys = ys;
+		this.d = d;
+
+		double h = SQRT3 * d / 2;
+		int width = im.getWidth();
+		int height = im.getHeight();
+
+		// The range of q such that the centers are in the image, plus one cell on each side
+		qMin = (int) Math.floor(- xs / h) - 1;
+		int qMax = (int) Math.ceil((width - 1 - xs) / h) + 1;
+
+		// The range of r such that the centers are in the image for some q, plus one cell on each side
+		rMin = Integer.MAX_VALUE;
+		int rMax = Integer.MIN_VALUE;
+		for (int q : new int[] {qMin, qMax}) {
+			rMin = Math.min(rMin, (int) Math.floor((- ys - q*d/2) / d) - 1);
+			rMax = Math.max(rMax, (int) Math.ceil((height - 1 - ys - q*d/2) / d) + 1);
+		}
+
+		cols = qMax - qMin + 1;
+		rows = rMax - rMin + 1;
+
+		offsets = new int[7];
+		for (int i = 1; i <= 6; i ++) {
+			offsets[i] = DQ[i]*rows + DR[i];
+		}
+
+		usable = newBitset(size());
+		for (int c = 0; c < size(); c ++) {
+			if (test.isUsable(xint(c), yint(c))) {
+				set(usable, c);
+				usableNumber ++;
+			}
+		}
+	}
+
+	public int size() {
+		return cols * rows;
+	}
+
+	public double spacing() {
+		return d;
+	}
+
+	// The number of usable cells
+	public int usableNumber() {
+		return usableNumber;
+	}
+
+	public int index(int q, int r) {
+		return (q - qMin)*rows + (r - rMin);
+	}
+
+	public int q(int c) {
+		return c / rows + qMin;
+	}
+
+	public int r(int c) {
+		return c % rows + rMin;
+	}
+
+	// The cell at (xs,ys)
+	public int origin() {
+		return index(0, 0);
+	}
+
+	public boolean isUsable(int c) {
+		return get(usable, c);
+	}
+
+	// Returns the index of the i-th neighbor of c, with i between 1 and 6 as in BinaryImage.next
+	public int neighbor(int c, int i) {
+		return c + offsets[i];
+	}
+
+	// The center of the cell
+	public double x(int c) {
+		return xs + q(c) * SQRT3 * d / 2;
+	}
+
+	public double y(int c) {
+		return ys + r(c) * d + q(c) * d / 2;
+	}
+
+	public int xint(int c) {
+		return (int) x(c);
+	}
+
+	public int yint(int c) {
+		return (int) y(c);
+	}
+
+	public Point toPoint(int c) {
+		return new Point(x(c), y(c));
+	}
+
+	// The Points of the first length cells of path
+	public ArrayList<Point> toPoints(int[] path, int length) {
+		ArrayList<Point> points = new ArrayList<Point>(length);
+		for (int k = 0; k < length; k ++) {
+			points.add(toPoint(path[k]));
+		}
+		return points;
+	}
+
+
+	// Bitsets stored in arrays of long
+
+	static long[] newBitset(int size) {
+		return new long[(size + 63) >>> 6];
+	}
+
+	static boolean get(long[] bits, int i) {
+		return (bits[i >>> 6] & (1L << i)) != 0;
+	}
+
+	static void set(long[] bits, int i) {
+		bits[i >>> 6] |= 1L << i;
+	}
+
+	static void clear(long[] bits, int i) {
+		bits[i >>> 6] &= ~(1L << i);
+	}
+
+}
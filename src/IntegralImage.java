@@ -0,0 +1,75 @@
+// Summed-area table of a BinaryImage: sum[y*(width+1) + x] is the number of black pixels in the rectangle [0,x) x [0,y)
+// It is built in one pass over the image, and then the number of black pixels of any rectangle costs four reads
+// The counts are ints, which is enough for images of up to 2^31 pixels
+public class IntegralImage {
+
+	private int width;
+	private int height;
+	private int[] sum;
+
+	IntegralImage(BinaryImage im) {
+		width = im.getWidth();
+		height = im.getHeight();
+		sum = new int[(width + 1) * (height + 1)];
+
+		long[] raster = im.raster();
+		int wordsPerRow = im.wordsPerRow();
+		for (int y = 0; y < height; y ++) {
+			int rowSum = 0;
+			int above = y * (width + 1);
+			int current = above + width + 1;
+			for (int x = 0; x < width; x ++) {
+				if ((raster[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0) {
+					rowSum ++;
+				}
+				sum[current + x + 1] = sum[above + x + 1] + rowSum;
+			}
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	// The number of black pixels in the rectangle [x0,x1) x [y0,y1), clipped to the image
+	public int count(int x0, int y0, int x1, int y1) {
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+		x1 = Math.min(x1, width);
+		y1 = Math.min(y1, height);
+		if (x0 >= x1 || y0 >= y1) {
+			return 0;
+		}
+		int w = width + 1;
+		return sum[y1*w + x1] - sum[y0*w + x1] - sum[y1*w + x0] + sum[y0*w + x0];
+	}
+
+	// Test whether the rectangle [x0,x1) x [y0,y1) is within the image and all black
+	public boolean isBlack(int x0, int y0, int x1, int y1) {
+		if (x0 < 0 || y0 < 0 || x1 > width || y1 > height) {
+			return false;
+		}
+		return count(x0, y0, x1, y1) == (x1 - x0) * (y1 - y0);
+	}
+
+	// Test whether the rectangle [x0,x1) x [y0,y1) is within the image and all white
+	public boolean isWhite(int x0, int y0, int x1, int y1) {
+		if (x0 < 0 || y0 < 0 || x1 > width || y1 > height) {
+			return false;
+		}
+		return count(x0, y0, x1, y1) == 0;
+	}
+
+	// The number of black pixels in the bounding box of the hexagon of center (x,y) and radius r, drawn as in
+	// BinaryImage.drawHexagon (two vertices on the horizontal line through the center)
+	public int countHexagonBox(int x, int y, double r) {
+		int dx = (int) Math.ceil(r);
+		int dy = (int) Math.ceil(HexLattice.SQRT3 * r / 2);
+		return count(x - dx, y - dy, x + dx + 1, y + dy + 1);
+	}
+
+}
@@ -0,0 +1,195 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+// Depth-first search of the longest path of usable cells of a HexLattice, used by BinaryImage.greatestPath
+// The search is iterative: the path is a stack of cells with, for each depth, the next direction to try, so that extending
+// or shortening the path is a push or a pop, and deep explorations don't exhaust the call stack
+// The best path is only copied when a new maximum is reached, and only from the deepest cell it shares with the previous best
+// The search can also be stopped by a deadline, and each improvement of the best path can be published to a PathListener
+// When several explorers run in parallel (ParallelPathSearch), they share the best length found so far, and a branch is cut
+// as soon as it can't beat it, i.e. when its length plus the number of free cells reachable from its end is not enough
+public class LatticeExplorer {
+
+	private HexLattice lattice;
+
+	private int[] path;			// path[0..depth] is the current path
+	private int[] direction;	// direction[k] is the next direction (1 to 6) to try from path[k]
+	private long[] visited;
+	private int depth;
+
+	private int[] best;
+	private int bestLength;
+	private int shared;			// best and path coincide on [0, shared)
+
+	private PathListener listener;
+	private long startTime;
+	private long nodes;
+
+	// The order in which the six directions are tried: order[1..6] is a permutation of 1..6
+	private int[] order = new int[] {0, 1, 2, 3, 4, 5, 6};
+
+	// The best length found by all the explorers sharing it, or null if the explorer is alone
+	private AtomicInteger globalBest;
+
+	// The bound is only computed every PRUNE_PERIOD expansions, since it costs a traversal of the free cells
+	private static final int PRUNE_PERIOD = 64;
+	private int[] queue;
+	private int[] stamp;
+	private int generation;
+
+	LatticeExplorer(HexLattice lattice) {
+		this.lattice = lattice;
+		// The path holds at most every usable cell, plus the start which may not be usable
+		path = new int[lattice.usableNumber() + 1];
+		direction = new int[path.length];
+		best = new int[path.length];
+		visited = HexLattice.newBitset(lattice.size());
+	}
+
+	// Explores from start, expanding at most nbCalls cells, and returns the best path (its length is bestLength())
+	public int[] explore(int start, long nbCalls) {
+		return explore(start, nbCalls, Long.MAX_VALUE, null, 0, null);
+	}
+
+	// The time is checked every CHECK_PERIOD steps only, since System.nanoTime is not free
+	private static final int CHECK_PERIOD = 1024;
+
+	// Explores from start until nbCalls cells are expanded or until timeBudgetMillis have passed, and returns the best path
+	// If seed is not null, its first seedLength cells are a path from start that is used as the initial best path
+	// If listener is not null, it is told about each improvement of the best path (including the seed)
+	public int[] explore(int start, long nbCalls, long timeBudgetMillis, int[] seed, int seedLength, PathListener listener) {
+
+		long counter = nbCalls;
+		this.listener = listener;
+		startTime = System.nanoTime();
+		long deadline = (timeBudgetMillis == Long.MAX_VALUE) ? Long.MAX_VALUE : startTime + timeBudgetMillis * 1000000;
+		nodes = 0;
+		long steps = 0;
+
+		path[0] = start;
+		best[0] = start;
+		bestLength = 1;
+		shared = 1;
+		HexLattice.set(visited, start);
+
+		if (seed != null && seedLength > 1) {
+			System.arraycopy(seed, 0, best, 0, seedLength);
+			bestLength = seedLength;
+			publish();
+		}
+
+		// We don't expand a cell if the counter is lower than 0
+		depth = (-- counter < 0) ? -1 : 0;
+		direction[0] = 1;
+
+		while (depth >= 0) {
+
+			if (++ steps % CHECK_PERIOD == 0 && deadline != Long.MAX_VALUE && System.nanoTime() > deadline) {
+				// Time is up: we empty the stack
+				while (depth >= 0) {
+					pop();
+				}
+				break;
+			}
+
+			int current = path[depth];
+
+			if (direction[depth] > 6) {
+				// Every direction has been tried: we backtrack
+				pop();
+				continue;
+			}
+
+			int next = lattice.neighbor(current, order[direction[depth]]);
+			direction[depth] ++;
+
+			// We check if we can add next to the path
+			if (lattice.isUsable(next) && !HexLattice.get(visited, next)) {
+
+				depth ++;
+				path[depth] = next;
+				direction[depth] = 1;
+				HexLattice.set(visited, next);
+
+				// If the path is the greatest so far, we memorize it
+				if (depth + 1 > bestLength) {
+					System.arraycopy(path, shared, best, shared, depth + 1 - shared);
+					bestLength = depth + 1;
+					shared = bestLength;
+					publish();
+				}
+
+				// The new cell counts as one call, and is not expanded if there are none left
+				nodes ++;
+				if (-- counter < 0) {
+					pop();
+				} else if (globalBest != null && nodes % PRUNE_PERIOD == 0 && depth + 1 + reachable(next) <= globalBest.get()) {
+					// Not expanded either since the branch can't beat the best path of the other explorers
+					pop();
+				}
+			}
+		}
+
+		// We leave visited empty for the next exploration
+		Arrays.fill(visited, 0);
+		this.listener = null;
+		return best;
+	}
+
+	// Tries the directions in the given order (order[1..6] being a permutation of 1..6) instead of 1, 2, ..., 6
+	public void setOrder(int[] order) {
+		this.order = order;
+	}
+
+	// Shares the best length with other explorers: it is read to cut branches and updated with each improvement
+	public void shareBest(AtomicInteger globalBest) {
+		this.globalBest = globalBest;
+		queue = new int[path.length];
+		stamp = new int[lattice.size()];
+	}
+
+	// The number of free cells that can be reached from c without going through the path
+	private int reachable(int c) {
+		generation ++;
+		int head = 0;
+		int tail = 0;
+		queue[tail ++] = c;
+		stamp[c] = generation;
+		while (head < tail) {
+			int u = queue[head ++];
+			for (int i = 1; i <= 6; i ++) {
+				int v = lattice.neighbor(u, i);
+				if (stamp[v] != generation && lattice.isUsable(v) && !HexLattice.get(visited, v)) {
+					stamp[v] = generation;
+					queue[tail ++] = v;
+				}
+			}
+		}
+		return tail - 1;
+	}
+
+	private void publish() {
+		if (globalBest != null) {
+			globalBest.accumulateAndGet(bestLength, Math::max);
+		}
+		if (listener != null) {
+			final int[] snapshot = best;
+			final int length = bestLength;
+			listener.improved(length, (System.nanoTime() - startTime) / 1000000, nodes, () -> lattice.toPoints(snapshot, length));
+		}
+	}
+
+	private void pop() {
+		if (depth > 0) {
+			HexLattice.clear(visited, path[depth]);
+		}
+		depth --;
+		shared = Math.min(shared, Math.max(depth + 1, 0));
+	}
+
+	public int bestLength() {
+		return bestLength;
+	}
+
+}
@@ -0,0 +1,201 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+// Chooses the spacing d and the origin (xs, ys) of the lattice of hexagons of a BinaryImage, instead of guessing them by hand
+// A cell is usable if its hexagon (of radius d/2) is entirely black (HexLattice.hexagonTest, mostly a single read in the distance
+// transform of the image), and a candidate lattice is scored by the number of cells of its largest connected set of usable cells, since a path
+// can't cover more: the score of a candidate costs O(cells), and many candidates are scored in parallel
+// For a given spacing, the origins tried are a grid of ORIGIN_STEPS x ORIGIN_STEPS offsets within one cell
+// For a range of spacings, we look for the largest spacing that still gives a board of the requested number of cells
+// The path must then be searched on the lattice that was scored, with the same test: lattice(result) rebuilds it, and
+// BinaryImage.longPath(lattice, result.start) starts from the chosen cell
+public class LatticeFit {
+
+	private static final int ORIGIN_STEPS = 6;
+	private static final int SPACING_STEPS = 16;
+
+	private BinaryImage im;
+	private int threads;
+
+	// The parameters of a lattice, and its score
+	public static class Result {
+		public int xs;			// the center of a usable cell of the largest component, with as few usable neighbors as possible,
+		public int ys;			// so that it is a good start for a path
+		public double d;
+		public int cells;		// the number of cells of the largest component
+
+		// The origin of the lattice, and the index of the start cell in it
+		int originX;
+		int originY;
+		int start;
+
+		Result(int xs, int ys, double d, int cells, int originX, int originY, int start) {
+			this.xs = xs;
+			this.ys = ys;
+			this.d = d;
+			this.cells = cells;
+			this.originX = originX;
+			this.originY = originY;
+			this.start = start;
+		}
+
+		public String toString() {
+			return "d = " + d + ", start = (" + xs + ", " + ys + "), " + cells + " cells";
+		}
+	}
+
+	LatticeFit(BinaryImage im, int threads) {
+		this.im = im;
+		this.threads = threads;
+	}
+
+	LatticeFit(BinaryImage im) {
+		this(im, Runtime.getRuntime().availableProcessors());
+	}
+
+	// The best origin for the spacing d
+	public Result fit(double d) {
+		return best(candidates(new double[] {d}));
+	}
+
+	// The largest spacing between dMin and dMax whose best origin gives at least cells cells, with this origin
+	// If even dMin doesn't give enough cells, the candidate with the most cells is returned
+	public Result fit(double dMin, double dMax, int cells) {
+
+		double[] spacings = new double[SPACING_STEPS];
+		for (int k = 0; k < SPACING_STEPS; k ++) {
+			spacings[k] = dMin * Math.pow(dMax / dMin, (double) k / (SPACING_STEPS - 1));
+		}
+		List<Result> results = score(candidates(spacings));
+
+		Result res = null;
+		Result most = null;
+		for (Result r : results) {
+			if (r.cells >= cells && (res == null || r.d > res.d || (r.d == res.d && r.cells > res.cells))) {
+				res = r;
+			}
+			if (most == null || r.cells > most.cells) {
+				most = r;
+			}
+		}
+		return (res != null) ? res : most;
+	}
+
+	// The usable cells of the lattices
+	public HexLattice.CenterTest test(double d) {
+		return HexLattice.hexagonTest(im, d);
+	}
+
+	// The lattice scored for the result, whose usable cells are the ones counted in result.cells
+	public HexLattice lattice(Result result) {
+		return new HexLattice(im, result.originX, result.originY, result.d, test(result.d));
+	}
+
+	private List<Callable<Result>> candidates(double[] spacings) {
+
+		List<Callable<Result>> tasks = new ArrayList<Callable<Result>>();
+		for (double d : spacings) {
+			// The distance transform is computed once, before the tasks share it
+			HexLattice.CenterTest test = test(d);
+			double h = HexLattice.SQRT3 * d / 2;
+			for (int i = 0; i < ORIGIN_STEPS; i ++) {
+				for (int j = 0; j < ORIGIN_STEPS; j ++) {
+					int xs = (int) (i * h / ORIGIN_STEPS);
+					int ys = (int) (j * d / ORIGIN_STEPS);
+					tasks.add(() -> largestComponent(new HexLattice(im, xs, ys, d, test), xs, ys));
+				}
+			}
+		}
+		return tasks;
+	}
+
+	private List<Result> score(List<Callable<Result>> tasks) {
+		List<Result> results = new ArrayList<Result>();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for (Future<Result> f : pool.invokeAll(tasks)) {
+				results.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return results;
+	}
+
+	private Result best(List<Callable<Result>> tasks) {
+		Result res = null;
+		for (Result r : score(tasks)) {
+			if (res == null || r.cells > res.cells) {
+				res = r;
+			}
+		}
+		return res;
+	}
+
+	// The largest component of usable cells of the lattice, by a traversal of each component
+	private static Result largestComponent(HexLattice lattice, int xs, int ys) {
+
+		int[] component = new int[lattice.size()];
+		int[] queue = new int[lattice.usableNumber()];
+		int number = 0;
+		int bestSize = 0;
+		int bestStart = lattice.origin();
+
+		for (int c = 0; c < lattice.size(); c ++) {
+			if (!lattice.isUsable(c) || component[c] != 0) {
+				continue;
+			}
+			number ++;
+			int head = 0;
+			int tail = 0;
+			queue[tail ++] = c;
+			component[c] = number;
+			int start = c;
+			int startDegree = 7;
+			while (head < tail) {
+				int u = queue[head ++];
+				int degree = 0;
+				for (int i = 1; i <= 6; i ++) {
+					int v = lattice.neighbor(u, i);
+					if (lattice.isUsable(v)) {
+						degree ++;
+						if (component[v] == 0) {
+							component[v] = number;
+							queue[tail ++] = v;
+						}
+					}
+				}
+				if (degree < startDegree) {
+					start = u;
+					startDegree = degree;
+				}
+			}
+			if (tail > bestSize) {
+				bestSize = tail;
+				bestStart = start;
+			}
+		}
+
+		return new Result(lattice.xint(bestStart), lattice.yint(bestStart), lattice.spacing(), bestSize, xs, ys, bestStart);
+	}
+
+	public static void main(String[] args) {
+		BinaryImage im = new BinaryImage("christmasTree.png");
+		long start = System.currentTimeMillis();
+		LatticeFit fit = new LatticeFit(im);
+		System.out.println("Best origin for d = 20: " + fit.fit(20));
+		System.out.println("Largest board of 100 cells: " + fit.fit(10, 40, 100));
+		System.out.println("Fitted in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+}
@@ -0,0 +1,232 @@
+import java.util.Arrays;
+import java.util.Random;
+
+
+// Heuristic construction of a long path of usable cells of a HexLattice, as an alternative to the exhaustive search of
+// LatticeExplorer for boards that fill a whole image
+// For n usable cells, each rotation reverses a suffix of the path in O(n), and there are at most 3n of them (one before each
+// extension, plus the budget of 2n), so the worst case is O(n^2); each pass of the insertion is linear in the lattice
+// 1. Greedy extension (Warnsdorff's rule): we always go to the free neighbor that has the fewest free neighbors itself,
+//    so that the path doesn't leave isolated cells behind it
+// 2. Posa rotation-extension: when the end of the path is stuck, if it is adjacent to path[i], the path
+//    path[0..i] path[k] path[k-1] ... path[i+1] is also valid and ends in path[i+1], from which we may be able to go on
+// 3. Insertion: a free cell adjacent to two consecutive cells of the path (or a pair of adjacent free cells adjacent to them)
+//    is inserted between them
+// The path always starts at the given start cell
+public class LongPathBuilder {
+
+	private HexLattice lattice;
+	private Random random;
+
+	private int[] path;
+	private int length;
+	private int[] position;			// position[c] is the index of c in the path, or -1 if c is free
+
+	// The maximum number of rotations that don't directly lead to an extension, relative to the number of usable cells
+	private double rotationBudget = 2;
+
+	LongPathBuilder(HexLattice lattice, Random random) {
+		this.lattice = lattice;
+		this.random = random;
+	}
+
+	LongPathBuilder(HexLattice lattice) {
+		this(lattice, new Random(0));
+	}
+
+	public int[] build(int start) {
+
+		path = new int[lattice.usableNumber() + 1];
+		position = new int[lattice.size()];
+		Arrays.fill(position, -1);
+		path[0] = start;
+		position[start] = 0;
+		length = 1;
+
+		extendWithRotations((long) (rotationBudget * lattice.usableNumber()));
+		insertFreeCells();
+
+		return Arrays.copyOf(path, length);
+	}
+
+	public int length() {
+		return length;
+	}
+
+	private boolean isFree(int c) {
+		return lattice.isUsable(c) && position[c] == -1;
+	}
+
+	private int freeNeighbors(int c) {
+		int count = 0;
+		for (int i = 1; i <= 6; i ++) {
+			if (isFree(lattice.neighbor(c, i))) {
+				count ++;
+			}
+		}
+		return count;
+	}
+
+
+	// 1. and 2.
+
+	private void extendWithRotations(long budget) {
+
+		while (true) {
+
+			extendGreedily();
+
+			// The end is stuck: we look for a rotation whose new end has a free neighbor
+			int end = path[length - 1];
+			int rotation = -1;
+			for (int i = 1; i <= 6 && rotation == -1; i ++) {
+				int p = position[lattice.neighbor(end, i)];
+				if (p != -1 && p < length - 2 && freeNeighbors(path[p + 1]) > 0) {
+					rotation = p;
+				}
+			}
+
+			if (rotation == -1) {
+				// None: we do a random rotation to move the end elsewhere, as long as the budget allows it
+				if (budget <= 0) {
+					return;
+				}
+				budget --;
+				int[] candidates = new int[6];
+				int k = 0;
+				for (int i = 1; i <= 6; i ++) {
+					int p = position[lattice.neighbor(end, i)];
+					if (p != -1 && p < length - 2) {
+						candidates[k ++] = p;
+					}
+				}
+				if (k == 0) {
+					return;
+				}
+				rotation = candidates[random.nextInt(k)];
+			}
+
+			rotate(rotation);
+		}
+	}
+
+	// Warnsdorff's rule, with random tie-breaking
+	private void extendGreedily() {
+		while (true) {
+			int end = path[length - 1];
+			int bestCell = -1;
+			int bestDegree = 7;
+			int ties = 0;
+			for (int i = 1; i <= 6; i ++) {
+				int c = lattice.neighbor(end, i);
+				if (isFree(c)) {
+					int degree = freeNeighbors(c);
+					if (degree < bestDegree) {
+						bestCell = c;
+						bestDegree = degree;
+						ties = 1;
+					} else if (degree == bestDegree && random.nextInt(++ ties) == 0) {
+						bestCell = c;
+					}
+				}
+			}
+			if (bestCell == -1) {
+				return;
+			}
+			path[length] = bestCell;
+			position[bestCell] = length;
+			length ++;
+		}
+	}
+
+	// The end of the path is adjacent to path[i]: we reverse path[i+1..length-1], in O(length - i)
+	private void rotate(int i) {
+		for (int a = i + 1, b = length - 1; a < b; a ++, b --) {
+			int tmp = path[a];
+			path[a] = path[b];
+			path[b] = tmp;
+			position[path[a]] = a;
+			position[path[b]] = b;
+		}
+	}
+
+
+	// 3.
+
+	private void insertFreeCells() {
+
+		// The path as a linked list, so that insertions are done in constant time
+		int[] succ = new int[lattice.size()];
+		Arrays.fill(succ, -1);
+		for (int k = 0; k < length - 1; k ++) {
+			succ[path[k]] = path[k + 1];
+		}
+		boolean[] onPath = new boolean[lattice.size()];
+		for (int k = 0; k < length; k ++) {
+			onPath[path[k]] = true;
+		}
+
+		// An inserted cell can make another one insertable, so we go on until nothing changes
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int c = 0; c < lattice.size(); c ++) {
+				if (!lattice.isUsable(c) || onPath[c]) {
+					continue;
+				}
+
+				// A single cell between a and succ[a]
+				int a = insertionPoint(c, c, succ, onPath);
+				if (a != -1) {
+					succ[c] = succ[a];
+					succ[a] = c;
+					onPath[c] = true;
+					length ++;
+					changed = true;
+					continue;
+				}
+
+				// Two adjacent free cells c, c2 between a and succ[a]
+				for (int i = 1; i <= 6; i ++) {
+					int c2 = lattice.neighbor(c, i);
+					if (lattice.isUsable(c2) && !onPath[c2]) {
+						a = insertionPoint(c, c2, succ, onPath);
+						if (a != -1) {
+							succ[c2] = succ[a];
+							succ[c] = c2;
+							succ[a] = c;
+							onPath[c] = true;
+							onPath[c2] = true;
+							length += 2;
+							changed = true;
+							break;
+						}
+					}
+				}
+			}
+		}
+
+		// Back to an array
+		int c = path[0];
+		for (int k = 0; k < length; k ++) {
+			path[k] = c;
+			c = succ[c];
+		}
+	}
+
+	// Returns a cell a of the path adjacent to first, such that succ[a] is adjacent to last, or -1 if there is none
+	private int insertionPoint(int first, int last, int[] succ, boolean[] onPath) {
+		for (int i = 1; i <= 6; i ++) {
+			int a = lattice.neighbor(first, i);
+			if (onPath[a] && succ[a] != -1) {
+				for (int j = 1; j <= 6; j ++) {
+					if (lattice.neighbor(last, j) == succ[a]) {
+						return a;
+					}
+				}
+			}
+		}
+		return -1;
+	}
+
+}
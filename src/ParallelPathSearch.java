@@ -0,0 +1,179 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+// Searches the longest path of hexagons in the black area of an image from many starting points at once
+// The candidates combine several lattices (the origin is shifted by a fraction of a cell), several starting cells on each of them
+// and random orders of the directions. Each candidate is a task on a thread pool that runs LongPathBuilder then LatticeExplorer
+// until the deadline, and all the tasks share the best length so far (without locks) to cut their hopeless branches early
+// The longest path wins
+public class ParallelPathSearch {
+
+	// The shifts of the origin, as fractions of a cell along x and y
+	private static final double[] SHIFTS = new double[] {0, 1./3, 2./3};
+
+	private BinaryImage im;
+	private double d;
+	private int threads;
+	private int startsPerLattice;
+	private Random random;
+
+	private AtomicInteger bestLength = new AtomicInteger(0);
+	private AtomicReference<ArrayList<Point>> bestPath = new AtomicReference<ArrayList<Point>>(new ArrayList<Point>());
+
+	ParallelPathSearch(BinaryImage im, double d, int threads, int startsPerLattice, long seed) {
+		this.im = im;
+		this.d = d;
+		this.threads = threads;
+		this.startsPerLattice = startsPerLattice;
+		this.random = new Random(seed);
+	}
+
+	ParallelPathSearch(BinaryImage im, double d, int threads) {
+		this(im, d, threads, 2*threads, 0);
+	}
+
+	// Runs the search on a pool of threads for timeBudgetMillis and returns the longest path found
+	public ArrayList<Point> search(long timeBudgetMillis) {
+
+		long deadline = System.currentTimeMillis() + timeBudgetMillis;
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		long[] slice = new long[1];
+
+		for (double fx : SHIFTS) {
+			for (double fy : SHIFTS) {
+
+				int xs = (int) (im.getWidth()/2 + fx * HexLattice.SQRT3 * d / 2);
+				int ys = (int) (im.getHeight()/2 + fy * d);
+				HexLattice lattice = new HexLattice(im, xs, ys, d);
+
+				for (int start : starts(lattice)) {
+					final long taskSeed = random.nextLong();
+					tasks.add(() -> {
+						explore(lattice, start, deadline, slice[0], new Random(taskSeed));
+						return null;
+					});
+				}
+			}
+		}
+
+		// Each task gets its share of the time, so that the first ones don't use it all
+		slice[0] = Math.max(1, timeBudgetMillis * threads / Math.max(tasks.size(), 1));
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			for (Future<Void> f : pool.invokeAll(tasks)) {
+				f.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+
+		return bestPath.get();
+	}
+
+	// The starting cells: half of them are the usable cells with the fewest usable neighbors (the tips of the shape,
+	// where a hamiltonian path would have to start), the others are random usable cells
+	private int[] starts(HexLattice lattice) {
+
+		int usable = lattice.usableNumber();
+		if (usable == 0) {
+			return new int[0];
+		}
+
+		int[] cells = new int[usable];
+		int[] degrees = new int[usable];
+		int k = 0;
+		for (int c = 0; c < lattice.size(); c ++) {
+			if (lattice.isUsable(c)) {
+				int degree = 0;
+				for (int i = 1; i <= 6; i ++) {
+					if (lattice.isUsable(lattice.neighbor(c, i))) {
+						degree ++;
+					}
+				}
+				cells[k] = c;
+				degrees[k] = degree;
+				k ++;
+			}
+		}
+
+		int number = Math.min(startsPerLattice, usable);
+		int[] res = new int[number];
+		boolean[] taken = new boolean[usable];
+		int r = 0;
+
+		for (int degree = 0; degree <= 6 && r < (number + 1)/2; degree ++) {
+			for (int j = 0; j < usable && r < (number + 1)/2; j ++) {
+				if (degrees[j] == degree) {
+					taken[j] = true;
+					res[r ++] = cells[j];
+				}
+			}
+		}
+		while (r < number) {
+			int j = random.nextInt(usable);
+			if (!taken[j]) {
+				taken[j] = true;
+				res[r ++] = cells[j];
+			}
+		}
+		return res;
+	}
+
+	private void explore(HexLattice lattice, int start, long deadline, long slice, Random random) {
+
+		// This lattice can't beat the best path anyway
+		if (lattice.usableNumber() <= bestLength.get()) {
+			return;
+		}
+
+		// A random order of the directions
+		int[] order = new int[] {0, 1, 2, 3, 4, 5, 6};
+		for (int i = 6; i > 1; i --) {
+			int j = 1 + random.nextInt(i);
+			int tmp = order[i];
+			order[i] = order[j];
+			order[j] = tmp;
+		}
+
+		LongPathBuilder builder = new LongPathBuilder(lattice, random);
+		int[] seed = builder.build(start);
+		offer(lattice, seed, builder.length());
+
+		LatticeExplorer explorer = new LatticeExplorer(lattice);
+		explorer.setOrder(order);
+		explorer.shareBest(bestLength);
+		long budget = Math.min(slice, deadline - System.currentTimeMillis());
+		if (budget > 0) {
+			int[] best = explorer.explore(start, Long.MAX_VALUE, budget, seed, builder.length(), null);
+			offer(lattice, best, explorer.bestLength());
+		}
+	}
+
+	// Replaces the best path if path is longer
+	private void offer(HexLattice lattice, int[] path, int length) {
+		bestLength.accumulateAndGet(length, Math::max);
+		ArrayList<Point> current = bestPath.get();
+		while (length > current.size()) {
+			ArrayList<Point> candidate = lattice.toPoints(path, length);
+			if (bestPath.compareAndSet(current, candidate)) {
+				return;
+			}
+			current = bestPath.get();
+		}
+	}
+
+}
@@ -0,0 +1,12 @@
+import java.util.ArrayList;
+import java.util.function.Supplier;
+
+
+// Receives the successive improvements of the best path during an anytime path search (BinaryImage.greatestPathAnytime)
+// The path itself is only built if the listener asks the supplier for it, which must be done during the call since the
+// search goes on modifying the best path afterwards
+public interface PathListener {
+
+	void improved(int length, long elapsedMillis, long nodesExplored, Supplier<ArrayList<Point>> path);
+
+}
@@ -1,6 +1,7 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.stream.Stream;
 
 import org.sat4j.core.VecInt;
 import org.sat4j.minisat.SolverFactory;
@@ -16,12 +17,41 @@ public class Rikudo {
 	public ArrayList<ArrayList<Integer>> diamonds;
 	public int[] partialMap;
 	
+	// Optional cache shared by all the Rikudo objects, consulted by solveSAT and numberOfSolution
+	public static RikudoCache cache = null;
+	
+	// If true, createRikudoPath prints an approximate number of solutions each time it adds a constraint
+	public static boolean printEstimates = false;
+	
 	Rikudo(Graph g, ArrayList<ArrayList<Integer>> d, int[] pm) {
 		graph = g;
 		diamonds = d;
 		partialMap = pm;
 	}
 	
+	// The reduction of the last instance from s to t, with a copy of the constraints it was built with: the diamonds and the
+	// partial mapping are public and are changed by isGood and makeUnique, so it is rebuilt when they don't match anymore
+	private GraphReduction reduction;
+	private int reductionS;
+	private int reductionT;
+	private ArrayList<ArrayList<Integer>> reductionDiamonds;
+	private int[] reductionMap;
+	
+	public synchronized GraphReduction reduction(int s, int t) {
+		if (reduction == null || reductionS != s || reductionT != t || !Arrays.equals(reductionMap, partialMap)
+				|| !reductionDiamonds.equals(diamonds)) {
+			reductionDiamonds = new ArrayList<ArrayList<Integer>>();
+			for (ArrayList<Integer> d : diamonds) {
+				reductionDiamonds.add(new ArrayList<Integer>(d));
+			}
+			reductionMap = partialMap.clone();
+			reductionS = s;
+			reductionT = t;
+			reduction = new GraphReduction(graph, s, t, reductionDiamonds, reductionMap);
+		}
+		return reduction;
+	}
+	
 	
 	//Task 3 : SAT Solving
 	
@@ -33,6 +63,17 @@ public class Rikudo {
 		
 		try {
 			
+			// No hamiltonian path can go through the blocks of the graph, between the labelled endpoints if there are some
+			int s = (n > 0) ? partialMap[0] : -1;
+			int t = (n > 0) ? partialMap[n - 1] : -1;
+			if (!graph.blockCutTree().admitsPath(s, t)) {
+				throw new ContradictionException("No path through the blocks");
+			}
+			GraphReduction reduction = reduction(s, t);
+			if (!reduction.isFeasible()) {
+				throw new ContradictionException("No path with the forced edges");
+			}
+			
 			// The partial mapping is respected
 			
 			for (int i = 0; i < n; i ++) {
@@ -41,34 +82,15 @@ public class Rikudo {
 				}
 			}
 			
-			// Each vertex appears exactly once in the path
-			for (int v = 0; v < n; v ++) {
-				int[] a = new int[n];
-				for (int i = 0; i < n; i ++) {
-					a[i] = i + n*v + 1;
-				}
-				solver.addExactly(new VecInt(a), 1);
-			}
+			// Each vertex and each index appears exactly once, and consecutive vertices are adjacent in the graph without the
+			// deleted edges: these clauses only depend on this graph, so they are loaded from its template
+			reduction.graph().template().loadInto(solver);
 			
-			// Each index appears exactly once in the path
-			for (int i = 0; i < n; i ++) {
-				int[] a = new int[n];
-				for (int v = 0; v < n; v ++) {
-					a[v] = i + n*v + 1;
-				}
-				solver.addExactly(new VecInt(a), 1);
-			}
+			// The cut vertices have forced positions
+			graph.blockCutTree().addClauses(solver, s, t);
 			
-			// Consecutive vertices in the path are adjacent in the graph
-			for (int i = 0; i < n - 1; i ++) {
-				for (int v = 0; v < n; v ++) {
-					for (int u = 0; u < n; u ++) {
-						if (!graph.neighbors(u).contains(v)) {
-							solver.addClause(new VecInt(new int[] {- (i + n*u + 1), - (i + 1 + n*v + 1)}));
-						}
-					}
-				}
-			}
+			// The edges forced by the degrees and the chains are used
+			reduction.addClauses(solver);
 			
 			// All the diamonds have edges passing through them
 			for (int u = 0; u < n; u ++) {
@@ -162,7 +184,7 @@ public class Rikudo {
 			for (int i = 0; i < n - 1; i ++) {
 				for (int v = 0; v < n; v ++) {
 					for (int u = 0; u < n; u ++) {
-						if (!graph.neighbors(u).contains(v)) {
+						if (!graph.isAdjacent(u, v)) {
 							solver.addClause(new VecInt(new int[] {- (i + n*u + 1), - (i + 1 + n*v + 1)}));
 						}
 					}
@@ -179,23 +201,23 @@ public class Rikudo {
 						
 						// Case i = 0
 						for (int v2 = 0; v2 < n; v2 ++) {
-							if (v2 != v && graph.neighbors(u).contains(v2)) {
+							if (v2 != v && graph.isAdjacent(u, v2)) {
 								solver.addClause(new VecInt(new int[] {- (0 + n*u + 1), - (1 + n*v2 + 1)}));
 							}
 						}
 						
 						// Case i = n - 1
 						for (int v1 = 0; v1 < n; v1 ++) {
-							if (v1 != v && graph.neighbors(v1).contains(u)) {
+							if (v1 != v && graph.isAdjacent(v1, u)) {
 								solver.addClause(new VecInt(new int[] {- (n - 2 + n*v1 + 1), - (n - 1 + n*u + 1)}));
 							}
 						}
 						
 						// Case 0 < i < n - 1
 						for (int v1 = 0; v1 < n; v1 ++) {
-							if (v1 != v && graph.neighbors(v1).contains(u)) {
+							if (v1 != v && graph.isAdjacent(v1, u)) {
 								for (int v2 = 0; v2 < n; v2 ++) {
-									if (v2 != v1 && v2 != v && graph.neighbors(u).contains(v2)) {
+									if (v2 != v1 && v2 != v && graph.isAdjacent(u, v2)) {
 										for (int i = 1; i < n - 1; i ++) {
 											solver.addClause(new VecInt(new int[] {- (i - 1 + n*v1 + 1), - (i + n*u + 1), - (i + 1 + n*v2 + 1)}));
 										}
@@ -233,6 +255,17 @@ public class Rikudo {
 	
 	public int[] solveSAT() {
 		
+		RikudoCache.Key key = null;
+		if (cache != null) {
+			key = cache.key(this);
+			int[] path = cache.getSolution(key);
+			if (path != null) {
+				System.out.println("Solution found in cache");
+				System.out.println(Arrays.toString(path));
+				return path;
+			}
+		}
+		
 		ISolver solver = solverBuilder();
 		int n = graph.vertexNumber();
 		
@@ -250,10 +283,12 @@ public class Rikudo {
 				}
 				
 				System.out.println(Arrays.toString(path));
+				if (cache != null) cache.putSolution(key, path);
 				return path;
 				
 			} else {
 				System.out.println("There is no solution");
+				if (cache != null) cache.putSolution(key, new int[] {-1});
 				return new int[] {-1};
 			}
 			
@@ -267,96 +302,60 @@ public class Rikudo {
 	
 	//Task 3 : exploring
 	
-	private void exploring(int s, int t, int[] explored, ArrayList<Integer> path, int n) {
+	// Extends the path from its last vertex s with the vertex of index i = path.size(), where label[v] is the index of the label
+	// of v (or -1): the next vertex is unexplored, adjacent to s, and is t exactly at the last index; a labelled vertex only takes
+	// the index of its label; and s is only left if all its diamonds go to its predecessor or to this vertex
+	private void exploring(int s, int t, int[] explored, ArrayList<Integer> path, int n, int[] label) {
 		// we begin to see if there are any constraints that need to be fulfilled during the iteration
 		
-		ArrayList<Integer> neigh = graph.neighbors(s);
 		int i = path.size();
+		int previous = (i >= 2) ? path.get(i-2) : -1;
 		
-		if (i == n-1) {					// t must be the end of the path : for the rest of the algorithm we can assume that we haven't reached the end of the path
-			if (neigh.contains(t)){
-				explored[t] = 1;
-				path.add(t);
+		int next = -1;							// the vertex that the constraints force at the index i, if any
+		for (int v : diamonds.get(s)) {			// the diamonds of s that don't go to its predecessor go to its successor
+			if (v != previous) {
+				if (next != -1 && next != v) return;		// s is part of two diamonds that need to go to its successor
+				next = v;
 			}
-			return;
 		}
-		
-		if (partialMap[i] != -1) { 			// we verify whether the lambda constraint can be fulfilled and continue exploring if so
-			int v = partialMap[i];
-			if (neigh.contains(v)) {
-				explored[v] = 1;
-				path.add(v);
-				exploring(v,t,explored,path,n);
-				if (path.size() != n) {
-					explored[v] = 0;
-					path.remove(path.size()-1);	
-				}
-			}
-			return;
+		if (partialMap[i] != -1) {
+			if (next != -1 && next != partialMap[i]) return;
+			next = partialMap[i];
 		}
 		
+		// if none of the constraints condition our exploration, we use the general exploring method by looking at each of the unexplored neighbors
 		
-		ArrayList<Integer> d = diamonds.get(s);  // a vertex can appear at most twice in the set of diamonds, or the problem is unsolvable
-		
-		if (d.size() == 2) {				// if the vertex is part of two diamonds, then we know that its predecessor and successor are one of two values
-			int v1 = d.get(0);
-			int v2 = d.get(1);
-			if (v1 == t || v2 == t) return; 				// impossible to fulfill because it means t needs to be a predecessor or a successor of the vertex and we haven't reached the end yet
-			if (explored[v1] == 0 && explored[v2] == 1) {
-				explored[v1] = 1;
-				path.add(v1);
-				exploring(v1,t,explored,path,n);
-				if (path.size() != n) {
-					explored[v1] = 0;
-					path.remove(path.size()-1);	
-				}
-			}
-			if (explored[v2] == 0 && explored[v1] == 1) {
-				explored[v2] = 1;
-				path.add(v2);
-				exploring(v2,t,explored,path,n);	
-				if (path.size() != n) {
-					explored[v2] = 0;
-					path.remove(path.size()-1);	
-				}
-			}
-			return;
+		ArrayList<Integer> candidates = new ArrayList<Integer>();
+		if (next != -1) {
+			candidates.add(next);
+		} else {
+			candidates.addAll(graph.neighbors(s));
 		}
 		
-		
-		if (d.size() == 1) { 					// if we don't come from the other vertex of the diamond, then we necessarily need to go there
-			int v1 = d.get(0);
-			if (v1 == t) return;					// unsatisfiable because t is either a predecessor or a successor and we haven't reached the end yet
-			if (explored[v1] == 1 && path.get(i-1) != v1) {
-				return;
+		for (int v : candidates) {
+			
+			if (explored[v] == 1 || !graph.isAdjacent(s, v) || (v == t) != (i == n-1) || (label[v] != -1 && label[v] != i)) {
+				continue;
 			}
-			if (explored[v1] == 0) {
-				explored[v1] = 1;
-				path.add(v1);
-				exploring(v1,t,explored,path,n);
-				if (path.size() != n) {
-					explored[v1] = 0;
-					path.remove(path.size()-1);	
-				}
-				return;
+			if (i == n-1 && !endsAt(v, s)) {		// t is the end of the path : its diamonds must all go to s
+				continue;
 			}
+			explored[v] = 1;
+			path.add(v);
+			if (i == n-1) return;
+			exploring(v,t,explored,path,n,label);
+			if (path.size() == n) return; // determines whether the path + v can be completed into an hamiltonian path
+			explored[v] = 0; 
+			path.remove(path.size()-1);
 		}
+	}
 	
-		// if none of the constraints condition our exploration, we use the general exploring method by looking at each of the unexplored neighbors
-		
-		
-		for (int v : neigh) {
-			
-			if (v != t && explored[v] == 0) {		// we haven't reached the end yet : we can't choose target to explore																
-				explored[v] = 1;
-				path.add(v);
-				exploring(v,t,explored,path,n);
-				if (path.size() == n) break; // determines whether the path + v can be completed into an hamiltonian path
-				explored[v] = 0; 
-				path.remove(path.size()-1);
-			}
-			
+	// Whether all the diamonds of v go to u
+	private boolean endsAt(int v, int u) {
+		for (int w : diamonds.get(v)) {
+			if (w != u) return false;
 		}
+		return true;
 	}
 	
 	public ArrayList<Integer> solveBacktracking(int s, int t){
@@ -368,8 +367,24 @@ public class Rikudo {
 		ArrayList<Integer> path = new ArrayList<Integer>();
 		path.add(s);
 		
-		// exploring the graph with the auxiliary method
-		exploring(s,t, explored, path, n);
+		int[] label = new int[n];
+		Arrays.fill(label, -1);
+		for (int i = 0; i < n; i ++) {
+			if (partialMap[i] != -1) label[partialMap[i]] = i;
+		}
+		
+		// exploring the graph without the edges that no solution can use, with the forced edges as extra diamonds
+		// s must take the index 0, and the path of one vertex must end where it starts
+		GraphReduction reduction = reduction(s, t);
+		if (label[s] > 0 || !reduction.isFeasible() || (n == 1 && (s != t || !endsAt(s, -1)))) {
+			path.clear();
+		} else if (n > 1) {
+			ArrayList<ArrayList<Integer>> constraints = reduction.forcedEdges();
+			for (int u = 0; u < n; u ++) {
+				constraints.get(u).addAll(diamonds.get(u));
+			}
+			new Rikudo(reduction.graph(), constraints, partialMap).exploring(s,t, explored, path, n, label);
+		}
 		
 		//result
 		if (path.size() == n) {System.out.println("Congrats you have found a solution"); System.out.println(path.toString());return path;}
@@ -381,14 +396,25 @@ public class Rikudo {
 	//Task 4
 	
 	public long numberOfSolution() {
+		
+		RikudoCache.Key key = null;
+		if (cache != null) {
+			key = cache.key(this);
+			long count = cache.getCount(key, Long.MAX_VALUE);
+			if (count != -1) {
+				return count;
+			}
+		}
+		
 		ISolver solver = solverBuilder();
 		try {
+			long count = 0;
 			if (solver.isSatisfiable()) {
 				SolutionCounter sc = new SolutionCounter(solver);
-				return sc.countSolutions();	
-			} else {
-				return 0;
+				count = sc.countSolutions();	
 			}
+			if (cache != null) cache.putCount(key, count, true);
+			return count;
 		} catch (TimeoutException e) {
 			System.out.println("Timeout, sorry!");
 			return 0;
@@ -397,6 +423,83 @@ public class Rikudo {
 	
 	
 	
+	// Lazy enumeration of the solutions, with the SAT solver or with backtracking from s to t
+	public Stream<int[]> solutions() {
+		return new SATSolutionIterator(solverBuilder(), graph.vertexNumber()).stream();
+	}
+	
+	// With the successor encoding (see SuccessorEncoding), between the labelled endpoints if there are some
+	// Only for small or densely labelled boards: it is much slower than solutions on large ones (see SuccessorEncoding)
+	// The search of each solution is given up after timeout seconds, and the stream then throws an IllegalStateException
+	public Stream<int[]> solutionsSuccessor(int timeout) {
+		int n = graph.vertexNumber();
+		int s = (n > 0) ? partialMap[0] : -1;
+		int t = (n > 0) ? partialMap[n - 1] : -1;
+		return new SuccessorEncoding(graph, s, t, diamonds, partialMap, reduction(s, t), timeout).stream();
+	}
+	
+	public Stream<int[]> solutionsSuccessor() {
+		return solutionsSuccessor(SuccessorEncoding.DEFAULT_TIMEOUT);
+	}
+	
+	// Same restrictions as solutionsSuccessor
+	public int[] solveSuccessor(int timeout) {
+		int[] path;
+		try {
+			path = solutionsSuccessor(timeout).findFirst().orElse(null);
+		} catch (IllegalStateException e) {
+			System.out.println("Timeout, sorry!");
+			return new int[] {-1};
+		}
+		if (path == null) {
+			System.out.println("There is no solution");
+			return new int[] {-1};
+		}
+		System.out.println("Solution Found");
+		System.out.println(Arrays.toString(path));
+		return path;
+	}
+	
+	public int[] solveSuccessor() {
+		return solveSuccessor(SuccessorEncoding.DEFAULT_TIMEOUT);
+	}
+	
+	public Stream<int[]> solutionsBacktracking(int s, int t) {
+		GraphReduction reduction = reduction(s, t);
+		if (!reduction.isFeasible()) {
+			return Stream.empty();
+		}
+		return new BacktrackingSolutionIterator(reduction.graph(), s, t, partialMap, reduction.forcedEdges()).stream();
+	}
+	
+	// Returns the number of solutions if it is lower than bound, and bound otherwise
+	// Only the first bound solutions are computed, so numberOfSolution(2) is enough to know whether the solution is unique
+	public long numberOfSolution(long bound) {
+		
+		RikudoCache.Key key = null;
+		if (cache != null) {
+			key = cache.key(this);
+			long count = cache.getCount(key, bound);
+			if (count != -1) {
+				return count;
+			}
+		}
+		
+		long count = solutions().limit(bound).count();
+		if (cache != null) cache.putCount(key, count, count < bound);
+		return count;
+	}
+	
+	
+	
+	// Returns an estimate of log2(number of solutions), within a factor (1 + epsilon) of the exact count with probability 1 - delta
+	// Unlike numberOfSolution, it doesn't need to enumerate all the solutions, so it works on boards with huge numbers of solutions
+	public double approximateNumberOfSolution(double epsilon, double delta) {
+		return new ApproximateCounter(epsilon, delta).log2Count(this);
+	}
+	
+	
+	
 	public boolean isGood() {
 		
 		int n = graph.vertexNumber();
@@ -412,7 +515,7 @@ public class Rikudo {
 				if (partialMap[k] != -1) {
 					int mem = partialMap[k];
 					partialMap[k] = -1;
-					if (numberOfSolution() == 1) {
+					if (numberOfSolution(2) == 1) {
 						System.out.println("The problem is not minimal: removing condition " + k + " on the partial mapping still yields only one solution");
 						partialMap[k] = mem;
 						return(false);				// a lambda condition can be removed
@@ -427,7 +530,7 @@ public class Rikudo {
 					if (v > u) {
 						diamonds.get(u).remove((Object)v);
 						diamonds.get(v).remove((Object)u);
-						if (numberOfSolution() == 1) {
+						if (numberOfSolution(2) == 1) {
 							System.out.println("The problem is not minimal: removing the diamond (" + u + ", " + v + ") still yields only one solution");
 							diamonds.get(u).add(v);
 							diamonds.get(v).add(u);
@@ -450,7 +553,7 @@ public class Rikudo {
 	
 	// Task 5
 	
-	private void makesGood() { // removes unnecessary conditions to a rikudo with a unique solution	: it functions similarily to isGood with a few differences
+	void makesGood() { // removes unnecessary conditions to a rikudo with a unique solution	: it functions similarily to isGood with a few differences
 		int n = graph.vertexNumber();
 		
 		for (int k = 1; k < n - 1; k ++) {
@@ -458,7 +561,7 @@ public class Rikudo {
 			if (partialMap[k] != -1) {
 				int mem = partialMap[k];
 				partialMap[k] = -1;
-				if (numberOfSolution() != 1) {
+				if (numberOfSolution(2) != 1) {
 					partialMap[k] = mem;
 				}
 			}
@@ -470,7 +573,7 @@ public class Rikudo {
 				if (v > u) {
 					diamonds.get(u).remove((Object) v);
 					diamonds.get(v).remove((Object)u);
-					if (numberOfSolution() != 1) {
+					if (numberOfSolution(2) != 1) {
 						diamonds.get(u).add(v);
 						diamonds.get(v).add(u);
 					}
@@ -496,20 +599,43 @@ public class Rikudo {
 		Rikudo riku = new Rikudo(g, diamonds, lambda);
 		
 		// Putting constraints until our path is the unique solution
+		makeUnique(riku, path);
+		
+		
+		// Removing solutions until the information is minimal
+		
+		riku.makesGood();
+		
+		
+		// returning a minimal rikudo puzzle
+		return(riku);
+		
+		//
+	}
+	
+	// Adds random constraints of the path (labels or diamonds) to riku until path is its unique solution
+	// We only need to know whether there is more than one solution, so we stop counting at 2
+	static void makeUnique(Rikudo riku, ArrayList<Integer> path) {
+		
+		int n = riku.graph.vertexNumber();
 		Random r = new Random();
 				
-		long nbSol = riku.numberOfSolution();
+		long nbSol = riku.numberOfSolution(2);
 
 		while (nbSol != 1) {
 			
-			System.out.println(nbSol);
+			if (printEstimates) {
+				System.out.println("About 2^" + Math.round(riku.approximateNumberOfSolution(0.8, 0.2)) + " solutions");
+			} else {
+				System.out.println("More than one solution");
+			}
 
 			
 			if (r.nextInt(2) == 0) {      // we add a lambda constraint
 				int i = r.nextInt(n);
 				if (riku.partialMap[i] == -1) {
 					riku.partialMap[i] = path.get(i);
-					nbSol = riku.numberOfSolution();
+					nbSol = riku.numberOfSolution(2);
 				}
 			}
 			else {						// we add a diamond constraint
@@ -519,22 +645,11 @@ public class Rikudo {
 				if (!riku.diamonds.get(v1).contains(v2)) {
 					riku.diamonds.get(v1).add(v2);
 					riku.diamonds.get(v2).add(v1);
-					nbSol = riku.numberOfSolution();
+					nbSol = riku.numberOfSolution(2);
 				}
 			}
 			
 		}
-		
-		
-		// Removing solutions until the information is minimal
-		
-		riku.makesGood();
-		
-		
-		// returning a minimal rikudo puzzle
-		return(riku);
-		
-		//
 	}
 	
 	public static Rikudo createRikudo (Graph g, int s, int t) {
@@ -0,0 +1,230 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+
+// Headless batch mode: turns every PNG of a directory into a rikudo, with a RikudoPipeline
+// For each image name.png, writes name.rikudo (see GraphicRikudo.exportPuzzle) and name.png (the board) in the output directory,
+// and a summary.csv with the size of the boards, the time spent in each stage and the status of each image: ok, the exception
+// that stopped its job, or export_ and the exception that stopped the writing of its outputs
+// The exit code is the number of images that failed, at most MAX_EXIT_CODE
+// The images are processed concurrently, but a job only starts when its estimated memory fits in the memory budget, so that
+// a directory of huge images doesn't run out of memory
+//
+// Usage: java RikudoBatch <input directory> <output directory> [--workers n] [--memory megabytes] [--spacing d] [--cells n]
+// With --cells, the spacing of each image is chosen by LatticeFit to give a board of about n cells (--spacing is then ignored)
+public class RikudoBatch {
+
+	// The estimated memory of a job, in bytes per pixel of the image: the raster of the image and of the board (1 bit each),
+	// and the distance transform of LatticeFit (one int per pixel), rounded up
+	private static final double BYTES_PER_PIXEL = 4.5;
+
+	// The smallest spacing tried with --cells
+	private static final double MIN_SPACING = 6;
+
+	private static final int MAX_EXIT_CODE = 100;
+
+	private File input;
+	private File output;
+	private int workers = Runtime.getRuntime().availableProcessors();
+	private int memoryMegabytes = (int) (Runtime.getRuntime().maxMemory() / 2 / (1 << 20));
+	private double spacing = 30;
+	private int cells = -1;
+
+	RikudoBatch(String[] args) {
+		if (args.length < 2) {
+			throw new IllegalArgumentException("Usage: java RikudoBatch <input directory> <output directory> "
+					+ "[--workers n] [--memory megabytes] [--spacing d] [--cells n]");
+		}
+		input = new File(args[0]);
+		output = new File(args[1]);
+		for (int k = 2; k < args.length; k += 2) {
+			if (k + 1 == args.length) {
+				throw new IllegalArgumentException("No value for " + args[k]);
+			}
+			switch (args[k]) {
+			case "--workers":
+				workers = Integer.parseInt(args[k + 1]);
+				break;
+			case "--memory":
+				memoryMegabytes = Integer.parseInt(args[k + 1]);
+				break;
+			case "--spacing":
+				spacing = Double.parseDouble(args[k + 1]);
+				break;
+			case "--cells":
+				cells = Integer.parseInt(args[k + 1]);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + args[k]);
+			}
+		}
+	}
+
+	// Processes the directory, and returns the number of images that failed
+	public int run() throws IOException, InterruptedException {
+
+		File[] files = input.listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
+		if (files == null) {
+			throw new IOException("Not a directory: " + input);
+		}
+		Arrays.sort(files);
+		if (!output.isDirectory() && !output.mkdirs()) {
+			throw new IOException("Can't create " + output);
+		}
+
+		System.out.println("Processing " + files.length + " images with " + workers + " workers and " + memoryMegabytes + " MB");
+
+		RikudoPipeline pipeline = new RikudoPipeline(workers);
+		try {
+			return run(files, pipeline);
+		} finally {
+			pipeline.shutdown();
+		}
+	}
+
+	// Submits the images, then writes their rows in order as they finish
+	private int run(File[] files, RikudoPipeline pipeline) throws IOException, InterruptedException {
+
+		Semaphore memory = new Semaphore(memoryMegabytes);
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<RikudoPipeline.Job> jobs = new ArrayList<RikudoPipeline.Job>();		// null for an image that wasn't submitted
+		ArrayList<CompletableFuture<String>> statuses = new ArrayList<CompletableFuture<String>>();
+		ArrayList<int[]> sizes = new ArrayList<int[]>();
+
+		for (File file : files) {
+
+			String name = file.getName().substring(0, file.getName().length() - 4);
+			names.add(name);
+
+			// An image whose header can't be read is a failed row, and the other images go on
+			int[] size;
+			try {
+				size = imageSize(file);
+			} catch (IOException | RuntimeException e) {
+				System.out.println("Error in reading " + file + ": " + e);
+				sizes.add(new int[] {0, 0});
+				jobs.add(null);
+				statuses.add(CompletableFuture.completedFuture(e.getClass().getSimpleName()));
+				continue;
+			}
+			sizes.add(size);
+
+			// A job larger than the whole budget takes all of it
+			int permits = (int) Math.min(memoryMegabytes, Math.ceil(BYTES_PER_PIXEL * size[0] * size[1] / (1 << 20)));
+			memory.acquire(permits);
+
+			RikudoPipeline.Job job = pipeline.submit(name, () -> new BinaryImage(file.getPath()), im -> path(im));
+			statuses.add(job.result().handle((gr, e) -> {
+				try {
+					if (e != null) {
+						Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+						return cause.getClass().getSimpleName();
+					}
+					gr.exportPuzzle(new File(output, name + ".rikudo").getPath());
+					gr.getImage().writePNG(new File(output, name + ".png").getPath());
+					return "ok";
+				} catch (IOException | RuntimeException ex) {
+					System.out.println("Error in writing the outputs of " + name + ": " + ex);
+					return "export_" + ex.getClass().getSimpleName();
+				} finally {
+					memory.release(permits);
+				}
+			}));
+			jobs.add(job);
+		}
+
+		int failed = 0;
+		try (BufferedWriter csv = Files.newBufferedWriter(Paths.get(output.getPath(), "summary.csv"), StandardCharsets.UTF_8)) {
+			csv.write("image,width,height,cells,clues,diamonds");
+			for (RikudoPipeline.Stage s : RikudoPipeline.Stage.values()) {
+				csv.write("," + s.name().toLowerCase() + "_ms");
+			}
+			csv.write(",status\n");
+
+			for (int k = 0; k < jobs.size(); k ++) {
+				RikudoPipeline.Job job = jobs.get(k);
+				String status = statuses.get(k).join();
+				GraphicRikudo gr = null;
+				try {
+					gr = (job == null) ? null : job.result().join();
+				} catch (CompletionException | CancellationException e) {
+					// The status already tells why
+				}
+				if (!status.equals("ok")) {
+					failed ++;
+				}
+
+				csv.write(names.get(k) + "," + sizes.get(k)[0] + "," + sizes.get(k)[1]);
+				if (gr != null) {
+					csv.write("," + gr.getCoordinates().size() + "," + gr.clueNumber() + "," + gr.diamondNumber());
+				} else {
+					csv.write(",,,");
+				}
+				for (RikudoPipeline.Stage s : RikudoPipeline.Stage.values()) {
+					csv.write("," + ((job == null) ? "" : job.millis(s)));
+				}
+				csv.write("," + status + "\n");
+				System.out.println(((job == null) ? names.get(k) : job) + " " + status);
+			}
+		}
+
+		System.out.println((jobs.size() - failed) + " images done, " + failed + " failed");
+
+		return failed;
+	}
+
+	// The PATH stage of a job: the lattice is chosen by LatticeFit (its spacing too if --cells was given), and the path
+	// is built by BinaryImage.longPath on this lattice
+	private GraphicRikudo path(BinaryImage im) {
+		LatticeFit fit = new LatticeFit(im, 1);
+		LatticeFit.Result res;
+		if (cells > 0) {
+			res = fit.fit(MIN_SPACING, Math.max(MIN_SPACING, Math.min(im.getWidth(), im.getHeight()) / 4.), cells);
+		} else {
+			res = fit.fit(spacing);
+		}
+		return new GraphicRikudo(im.longPath(fit.lattice(res), res.start), im.getWidth(), im.getHeight(), res.d);
+	}
+
+	// The width and height of an image, read from its header only
+	private static int[] imageSize(File file) throws IOException {
+		try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+			if (iis == null) {
+				return new int[] {0, 0};
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext()) {
+				return new int[] {0, 0};
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(iis, true, true);
+				return new int[] {reader.getWidth(0), reader.getHeight(0)};
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("java.awt.headless", "true");
+		int failed = new RikudoBatch(args).run();
+		System.exit(Math.min(failed, MAX_EXIT_CODE));
+	}
+
+}
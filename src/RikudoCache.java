@@ -0,0 +1,305 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+// Size-bounded LRU cache of solver results (solutions and solution counts) for Rikudo puzzles
+// Puzzles are indexed by a canonical fingerprint of (graph, partialMap, diamonds), so that the order of the neighbor
+// and diamond lists does not matter, and a puzzle and its reversed version (read from t to s) share the same entry
+// If a spill directory is given, evicted entries are written there and read back on a miss, so results survive restarts
+public class RikudoCache {
+
+	// A cache key: the canonical fingerprint, and whether the puzzle had to be reversed to get it
+	static class Key {
+		String hash;
+		boolean reversed;
+
+		Key(String hash, boolean reversed) {
+			this.hash = hash;
+			this.reversed = reversed;
+		}
+	}
+
+	// What we know about one puzzle, always expressed in the canonical orientation
+	// solution is null if unknown, and {-1} if the puzzle is known to have no solution
+	// count is a lower bound on the number of solutions, which is exact if exact is true
+	private static class Result {
+		int[] solution;
+		long count;
+		boolean exact;
+	}
+
+	private int capacity;
+	private File spillDirectory;
+	private LinkedHashMap<String, Result> entries;
+
+	// Metrics
+	private long hits;
+	private long misses;
+	private long diskHits;
+	private long evictions;
+
+	RikudoCache(int capacity) {
+		this(capacity, null);
+	}
+
+	// spillDirectory may be null, in which case evicted entries are simply forgotten
+	RikudoCache(int capacity, String spillDirectory) {
+		this.capacity = capacity;
+		if (spillDirectory != null) {
+			this.spillDirectory = new File(spillDirectory);
+			this.spillDirectory.mkdirs();
+		}
+		// accessOrder = true makes the iteration order the LRU order
+		entries = new LinkedHashMap<String, Result>(16, 0.75f, true) {
+			private static final long serialVersionUID = 2952270394871296318L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+				if (size() > RikudoCache.this.capacity) {
+					evictions ++;
+					spill(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+
+	// Fingerprint
+
+	// Returns the canonical key of the puzzle
+	public Key key(Rikudo riku) {
+
+		String graphPrint = riku.graph.fingerprint();
+		String forward = cluesPrint(riku.partialMap, riku.diamonds, false);
+
+		// The reversed puzzle only has the same solutions (reversed) if the graph is undirected
+		if (riku.graph.isUndirected()) {
+			String backward = cluesPrint(riku.partialMap, riku.diamonds, true);
+			if (backward.compareTo(forward) < 0) {
+				return new Key(sha256(graphPrint + "|" + backward), true);
+			}
+		}
+		return new Key(sha256(graphPrint + "|" + forward), false);
+	}
+
+	// The clues as a string, where the diamonds are listed as sorted pairs (u, v) with u < v
+	private static String cluesPrint(int[] partialMap, ArrayList<ArrayList<Integer>> diamonds, boolean reversed) {
+
+		int n = partialMap.length;
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < n; i ++) {
+			sb.append(partialMap[reversed ? n - 1 - i : i]).append(',');
+		}
+		sb.append('|');
+
+		for (int u = 0; u < n; u ++) {
+			int[] d = new int[diamonds.get(u).size()];
+			for (int k = 0; k < d.length; k ++) {
+				d[k] = diamonds.get(u).get(k);
+			}
+			Arrays.sort(d);
+			for (int v : d) {
+				if (v > u) {
+					sb.append(u).append('-').append(v).append(',');
+				}
+			}
+		}
+
+		return sb.toString();
+	}
+
+	static String sha256(String s) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	// Queries
+
+	// Returns the cached solution, or null if it is unknown
+	public synchronized int[] getSolution(Key key) {
+		Result e = lookup(key.hash);
+		if (e == null || (e.solution == null && !(e.exact && e.count == 0))) {
+			misses ++;
+			return null;
+		}
+		hits ++;
+		if (e.solution == null) {
+			return new int[] {-1};
+		}
+		return orient(e.solution, key.reversed);
+	}
+
+	// Returns the number of solutions if it is known exactly or if it is known to be at least bound,
+	// in which case bound is returned. Returns -1 otherwise.
+	public synchronized long getCount(Key key, long bound) {
+		Result e = lookup(key.hash);
+		if (e != null) {
+			if (e.exact) {
+				hits ++;
+				return Math.min(e.count, bound);
+			}
+			if (e.count >= bound) {
+				hits ++;
+				return bound;
+			}
+		}
+		misses ++;
+		return -1;
+	}
+
+	public synchronized void putSolution(Key key, int[] path) {
+		Result e = entry(key.hash);
+		if (path.length == 1 && path[0] == -1) {
+			e.solution = null;
+			e.count = 0;
+			e.exact = true;
+		} else {
+			e.solution = orient(path, key.reversed);
+			e.count = Math.max(e.count, 1);
+		}
+	}
+
+	// Records that the puzzle has count solutions, or at least count solutions if exact is false
+	public synchronized void putCount(Key key, long count, boolean exact) {
+		Result e = entry(key.hash);
+		if (e.exact) {
+			return;
+		}
+		if (exact || count > e.count) {
+			e.count = count;
+			e.exact = exact;
+		}
+	}
+
+	// Reverses the path if needed, to go from the canonical orientation to the puzzle's one (or the other way around)
+	private static int[] orient(int[] path, boolean reversed) {
+		int n = path.length;
+		int[] res = new int[n];
+		for (int i = 0; i < n; i ++) {
+			res[i] = path[reversed ? n - 1 - i : i];
+		}
+		return res;
+	}
+
+	private Result lookup(String hash) {
+		Result e = entries.get(hash);
+		if (e == null && spillDirectory != null) {
+			e = unspill(hash);
+			if (e != null) {
+				diskHits ++;
+				entries.put(hash, e);
+			}
+		}
+		return e;
+	}
+
+	private Result entry(String hash) {
+		Result e = lookup(hash);
+		if (e == null) {
+			e = new Result();
+			entries.put(hash, e);
+		}
+		return e;
+	}
+
+
+	// On-disk spill
+
+	private void spill(String hash, Result e) {
+		if (spillDirectory == null) {
+			return;
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(spillDirectory, hash))))) {
+			out.writeLong(e.count);
+			out.writeBoolean(e.exact);
+			if (e.solution == null) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(e.solution.length);
+				for (int v : e.solution) {
+					out.writeInt(v);
+				}
+			}
+		} catch (IOException ex) {
+			System.out.println("Could not spill cache entry " + hash + ": " + ex.getMessage());
+		}
+	}
+
+	private Result unspill(String hash) {
+		File f = new File(spillDirectory, hash);
+		if (!f.exists()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+			Result e = new Result();
+			e.count = in.readLong();
+			e.exact = in.readBoolean();
+			int n = in.readInt();
+			if (n >= 0) {
+				e.solution = new int[n];
+				for (int i = 0; i < n; i ++) {
+					e.solution[i] = in.readInt();
+				}
+			}
+			return e;
+		} catch (IOException ex) {
+			System.out.println("Could not read cache entry " + hash + ": " + ex.getMessage());
+			return null;
+		}
+	}
+
+	// Writes every entry still in memory to the spill directory, so that they survive a restart
+	public synchronized void flush() {
+		for (Map.Entry<String, Result> e : entries.entrySet()) {
+			spill(e.getKey(), e.getValue());
+		}
+	}
+
+
+	// Metrics
+
+	public synchronized long hits() {
+		return hits;
+	}
+
+	public synchronized long misses() {
+		return misses;
+	}
+
+	public synchronized double hitRate() {
+		return (hits + misses == 0) ? 0 : (hits + 0.) / (hits + misses);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("RikudoCache: %d entries, %d hits (%d from disk), %d misses, hit rate %.3f, %d evictions",
+				entries.size(), hits, diskHits, misses, hitRate(), evictions);
+	}
+
+}
@@ -0,0 +1,192 @@
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+
+// Turns images into rikudos in stages, each stage having its own pool of threads:
+// LOAD (reading the image), PATH (searching the path of hexagons), GRAPH (building the graph of the cells),
+// GENERATE (Rikudo.createRikudoPath) and RENDER (rasterizing the board)
+// A job goes from one stage to the next as a chain of CompletableFutures, so the stages of different jobs overlap (the board
+// of one image is rendered while the rikudo of another one is generated), and the number of threads of a stage bounds how many
+// jobs are in this stage at the same time
+// Each job records the time spent in each stage, and can be cancelled: the stage that is running finishes, and the next ones
+// are skipped
+public class RikudoPipeline {
+
+	public enum Stage { LOAD, PATH, GRAPH, GENERATE, RENDER }
+
+	private ExecutorService[] executors = new ExecutorService[Stage.values().length];
+
+	// threads[s] is the number of threads of the stage s
+	RikudoPipeline(int[] threads) {
+		for (Stage s : Stage.values()) {
+			executors[s.ordinal()] = Executors.newFixedThreadPool(threads[s.ordinal()]);
+		}
+	}
+
+	// The same number of threads for every stage
+	RikudoPipeline(int threads) {
+		this(new int[] {threads, threads, threads, threads, threads});
+	}
+
+	RikudoPipeline() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+
+	public static class Job {
+
+		private String name;
+		private long[] millis = new long[Stage.values().length];
+		private volatile Stage current;
+		private volatile boolean cancelled;
+		private CompletableFuture<GraphicRikudo> result = new CompletableFuture<GraphicRikudo>();
+
+		Job(String name) {
+			this.name = name;
+			for (int k = 0; k < millis.length; k ++) {
+				millis[k] = -1;
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		// The future of the rikudo, completed after the RENDER stage
+		public CompletableFuture<GraphicRikudo> result() {
+			return result;
+		}
+
+		// The time spent in the stage s, or -1 if it didn't run (yet)
+		public long millis(Stage s) {
+			return millis[s.ordinal()];
+		}
+
+		// The stage that is running or the last one that ran, or null if none has started
+		public Stage currentStage() {
+			return current;
+		}
+
+		// Skips the stages that haven't started, and completes the result with a CancellationException
+		public void cancel() {
+			cancelled = true;
+			result.cancel(false);
+		}
+
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder(name);
+			for (Stage s : Stage.values()) {
+				sb.append(' ').append(s).append('=').append(millis(s)).append("ms");
+			}
+			return sb.toString();
+		}
+
+		// Runs one stage of the job, unless it is cancelled
+		private <T> T run(Stage s, Supplier<T> stage) {
+			if (cancelled) {
+				throw new CancellationException(name + " cancelled before " + s);
+			}
+			current = s;
+			long start = System.currentTimeMillis();
+			T res = stage.get();
+			millis[s.ordinal()] = System.currentTimeMillis() - start;
+			return res;
+		}
+	}
+
+
+	// Submits a job: source gives the image, pathSearch the path of hexagons (of spacing d) in it
+	public Job submit(String name, Supplier<BinaryImage> source, double d, Function<BinaryImage, ArrayList<Point>> pathSearch) {
+		return submit(name, source, im -> new GraphicRikudo(pathSearch.apply(im), im.getWidth(), im.getHeight(), d));
+	}
+
+	// Submits a job whose PATH stage is pathStage, which gives the GraphicRikudo (not built yet) of the path it finds,
+	// for the jobs that choose the spacing of each image
+	public Job submit(String name, Supplier<BinaryImage> source, Function<BinaryImage, GraphicRikudo> pathStage) {
+
+		Job job = new Job(name);
+
+		CompletableFuture
+			.supplyAsync(() -> job.run(Stage.LOAD, source), executor(Stage.LOAD))
+			.thenApplyAsync(im -> job.run(Stage.PATH, () -> pathStage.apply(im)), executor(Stage.PATH))
+			.thenApplyAsync(gr -> job.run(Stage.GRAPH, () -> {
+					gr.buildGraph();
+					return gr;
+				}), executor(Stage.GRAPH))
+			.thenApplyAsync(gr -> job.run(Stage.GENERATE, () -> {
+					gr.generate();
+					return gr;
+				}), executor(Stage.GENERATE))
+			.thenApplyAsync(gr -> job.run(Stage.RENDER, () -> {
+					gr.getImage();
+					return gr;
+				}), executor(Stage.RENDER))
+			.whenComplete((gr, e) -> {
+				if (e == null) {
+					job.result.complete(gr);
+				} else {
+					job.result.completeExceptionally(e instanceof CompletionException ? e.getCause() : e);
+				}
+			});
+
+		return job;
+	}
+
+	// Submits a job for the image file filename: the origin of the lattice is chosen by LatticeFit, and the path is built
+	// by BinaryImage.longPath on the same lattice, from the start given by LatticeFit
+	public Job submit(String filename, double d) {
+		return submit(filename, () -> new BinaryImage(filename), d, im -> {
+			LatticeFit fit = new LatticeFit(im, 1);
+			LatticeFit.Result res = fit.fit(d);
+			return im.longPath(fit.lattice(res), res.start);
+		});
+	}
+
+	private ExecutorService executor(Stage s) {
+		return executors[s.ordinal()];
+	}
+
+	// Stops the threads once the submitted jobs are done
+	public void shutdown() {
+		for (ExecutorService e : executors) {
+			e.shutdown();
+		}
+	}
+
+	// Stops the threads right away, interrupting the running stages
+	public void shutdownNow() {
+		for (ExecutorService e : executors) {
+			e.shutdownNow();
+		}
+	}
+
+	public static void main(String[] args) {
+
+		RikudoPipeline pipeline = new RikudoPipeline(2);
+		ArrayList<Job> jobs = new ArrayList<Job>();
+		for (String filename : new String[] {"X.png", "bowtie.png", "christmasTree.png"}) {
+			jobs.add(pipeline.submit(filename, 30));
+		}
+
+		for (Job job : jobs) {
+			try {
+				GraphicRikudo gr = job.result().join();
+				System.out.println(job + " " + gr.getCoordinates().size() + " cells");
+			} catch (CompletionException | CancellationException e) {
+				System.out.println(job + " failed: " + e);
+			}
+		}
+		pipeline.shutdown();
+	}
+
+}
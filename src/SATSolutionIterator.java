@@ -0,0 +1,84 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.TimeoutException;
+
+
+// Lazily enumerates the paths encoded by a solver built with the x_i,v = i + n*v + 1 convention
+// Each time a path is found, a clause forbidding it is added to the same solver, so the next call resumes the search
+// incrementally instead of starting over
+public class SATSolutionIterator implements Iterator<int[]> {
+
+	private ISolver solver;
+	private int n;
+	private int[] next;
+	private boolean done;
+
+	SATSolutionIterator(ISolver solver, int n) {
+		this.solver = solver;
+		this.n = n;
+	}
+
+	@Override
+	public boolean hasNext() {
+
+		if (next == null && !done) {
+			try {
+				if (solver.isSatisfiable()) {
+
+					int[] solution = solver.model();
+					int[] path = new int[n];
+					for (int k = 0; k < solution.length; k ++) {
+						if (solution[k] > 0 && solution[k] <= n*n) {
+							path[(solution[k] - 1) % n] = (solution[k] - 1) / n;
+						}
+					}
+
+					// The path is entirely determined by the n positive literals x_i,path[i], so the blocking clause only needs them
+					int[] block = new int[n];
+					for (int i = 0; i < n; i ++) {
+						block[i] = - (i + n*path[i] + 1);
+					}
+					try {
+						solver.addClause(new VecInt(block));
+					} catch (ContradictionException e) {
+						// The path was the last one
+						done = true;
+					}
+
+					next = path;
+
+				} else {
+					done = true;
+				}
+			} catch (TimeoutException e) {
+				System.out.println("Timeout, sorry!");
+				done = true;
+			}
+		}
+
+		return next != null;
+	}
+
+	@Override
+	public int[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		int[] path = next;
+		next = null;
+		return path;
+	}
+
+	public Stream<int[]> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+}
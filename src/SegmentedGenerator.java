@@ -0,0 +1,274 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+// Generates the rikudo of a long path by pieces, for boards that are too large for Rikudo.createRikudoPath
+// 1. The path is cut into consecutive segments of about segmentLength cells (each one is a connected region of the board, since
+//    it is a path), and the rikudo of each segment is generated on the subgraph of its cells, in parallel. Its first and last
+//    cells are labelled, so the segments are stitched at fixed labels.
+// 2. A solution of the whole board could still leave a segment through any segment that touches it (on a 2-D board, this isn't
+//    only the next one), so each pair of segments with an edge between them is checked on the subgraph of their cells with all
+//    their constraints, and constraints are added until it has a unique solution. When the segments don't follow each other,
+//    the last cell of the first one and the first cell of the second one get a virtual edge: both are labelled at consecutive
+//    indices, so the solutions of the pair are the two walks that cover its cells between their fixed labels.
+//    The pairs are checked in rounds of disjoint pairs, in parallel, the consecutive pairs first.
+//    Adding constraints never creates solutions, so the pairs checked first stay uniquely solvable.
+// 3. Three segments or more could still exchange cells, so the whole board is checked with numberOfSolution(2) at the end, and
+//    made unique if needed, starting from the constraints of all the pairs. It is then made minimal with Rikudo.makesGood, as
+//    in createRikudoPath.
+// This is not a divide-and-conquer generator: the pieces only prepare constraints that are close to unique, but the uniqueness
+// and the minimality are still decided by whole-board solves, so the time of a large board is still bounded by them (the
+// minimization alone takes one whole-board solve per constraint). It is opt-in, see GraphicRikudo.generate
+public class SegmentedGenerator {
+
+	private int segmentLength;
+	private int threads;
+
+	SegmentedGenerator(int segmentLength, int threads) {
+		if (segmentLength < 2) {
+			throw new IllegalArgumentException("Segments must have at least 2 cells");
+		}
+		this.segmentLength = segmentLength;
+		this.threads = threads;
+	}
+
+	SegmentedGenerator(int segmentLength) {
+		this(segmentLength, Runtime.getRuntime().availableProcessors());
+	}
+
+	// The rikudo of g whose solution is path (a hamiltonian path of g)
+	public Rikudo generate(Graph g, ArrayList<Integer> path) {
+
+		int n = g.vertexNumber();
+		int segmentNumber = Math.max(1, n / segmentLength);
+		if (segmentNumber == 1) {
+			return Rikudo.createRikudoPath(g, path);
+		}
+
+		// The segment k is made of the positions start[k] <= i < start[k + 1] of the path
+		int[] start = new int[segmentNumber + 1];
+		for (int k = 0; k <= segmentNumber; k ++) {
+			start[k] = (int) ((long) k * n / segmentNumber);
+		}
+
+		int[] position = new int[n];
+		for (int i = 0; i < n; i ++) {
+			position[path.get(i)] = i;
+		}
+
+		int[] lambda = new int[n];
+		ArrayList<ArrayList<Integer>> diamonds = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < n; i ++) {
+			lambda[i] = -1;
+			diamonds.add(new ArrayList<Integer>());
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+
+			// 1. The segments
+			System.out.println("Generating " + segmentNumber + " segments...");
+			List<Callable<Rikudo>> segments = new ArrayList<Callable<Rikudo>>();
+			for (int k = 0; k < segmentNumber; k ++) {
+				int a = start[k];
+				int b = start[k + 1];
+				segments.add(() -> Rikudo.createRikudoPath(subgraph(g, path, position, a, b), localPath(b - a)));
+			}
+			List<Rikudo> results = invokeAll(pool, segments);
+			for (int k = 0; k < segmentNumber; k ++) {
+				merge(results.get(k), path, new int[] {start[k], start[k + 1], start[k + 1], start[k + 1]}, lambda, diamonds);
+			}
+
+			// 2. The pairs of segments that touch, in rounds of disjoint pairs
+			List<int[]> remaining = touchingPairs(g, path, position, start);
+			for (int round = 1; !remaining.isEmpty(); round ++) {
+				List<int[]> chosen = new ArrayList<int[]>();
+				boolean[] busy = new boolean[segmentNumber];
+				for (int[] pair : remaining) {
+					if (!busy[pair[0]] && !busy[pair[1]]) {
+						busy[pair[0]] = busy[pair[1]] = true;
+						chosen.add(pair);
+					}
+				}
+				remaining.removeAll(chosen);
+
+				System.out.println("Checking the pairs of segments (round " + round + ", " + chosen.size() + " pairs)...");
+				List<Callable<Rikudo>> pairs = new ArrayList<Callable<Rikudo>>();
+				List<int[]> ranges = new ArrayList<int[]>();
+				for (int[] pair : chosen) {
+					int[] range = new int[] {start[pair[0]], start[pair[0] + 1], start[pair[1]], start[pair[1] + 1]};
+					pairs.add(() -> check(g, path, position, range, lambda, diamonds));
+					ranges.add(range);
+				}
+				results = invokeAll(pool, pairs);
+				for (int p = 0; p < results.size(); p ++) {
+					merge(results.get(p), path, ranges.get(p), lambda, diamonds);
+				}
+			}
+
+		} finally {
+			pool.shutdownNow();
+		}
+
+		// 3. The whole board
+		System.out.println("Checking the whole board...");
+		Rikudo res = new Rikudo(g, diamonds, lambda);
+		Rikudo.makeUnique(res, path);
+		res.makesGood();
+		return res;
+	}
+
+	// The pairs {k, l} (k < l) of segments with an edge between them, the consecutive ones first
+	private static List<int[]> touchingPairs(Graph g, ArrayList<Integer> path, int[] position, int[] start) {
+		int segmentNumber = start.length - 1;
+		int[] segmentOf = new int[position.length];
+		for (int k = 0; k < segmentNumber; k ++) {
+			for (int i = start[k]; i < start[k + 1]; i ++) {
+				segmentOf[path.get(i)] = k;
+			}
+		}
+		HashSet<Long> seen = new HashSet<Long>();
+		List<int[]> res = new ArrayList<int[]>();
+		for (int v = 0; v < position.length; v ++) {
+			for (int k = 0; k < g.degree(v); k ++) {
+				int a = segmentOf[v];
+				int b = segmentOf[g.neighbor(v, k)];
+				if (a < b && seen.add((long) a * segmentNumber + b)) {
+					res.add(new int[] {a, b});
+				}
+			}
+		}
+		Collections.sort(res, (p, q) -> (p[1] - p[0] == 1) != (q[1] - q[0] == 1) ? ((p[1] - p[0] == 1) ? -1 : 1)
+				: (p[0] != q[0]) ? p[0] - q[0] : p[1] - q[1]);
+		return res;
+	}
+
+	// The subgraph of the cells of the positions a <= i < b of the path, where the cell path[i] is the vertex i - a
+	private static Graph subgraph(Graph g, ArrayList<Integer> path, int[] position, int a, int b) {
+		return subgraph(g, path, position, new int[] {a, b, b, b});
+	}
+
+	// The subgraph of the cells of the positions of two ranges [a1, b1) and [a2, b2) of the path (b1 <= a2), numbered as in
+	// the path with the second range right after the first one (see local), and with the virtual edge between the vertices
+	// b1 - a1 - 1 and b1 - a1 if they aren't adjacent
+	private static Graph subgraph(Graph g, ArrayList<Integer> path, int[] position, int[] range) {
+		int m1 = range[1] - range[0];
+		int m = m1 + range[3] - range[2];
+		int[] offsets = new int[m + 1];
+		int[] targets = new int[6*m + 1];
+		int e = 0;
+		for (int u = 0; u < m; u ++) {
+			int v = path.get(global(range, u));
+			boolean linked = false;
+			for (int k = 0; k < g.degree(v); k ++) {
+				int p = local(range, position[g.neighbor(v, k)]);
+				if (p != -1) {
+					if (e + 1 >= targets.length) {
+						targets = java.util.Arrays.copyOf(targets, 2*e + 2);
+					}
+					targets[e ++] = p;
+					linked |= (u == m1 - 1 && p == m1) || (u == m1 && p == m1 - 1);
+				}
+			}
+			if (!linked && m1 < m && (u == m1 - 1 || u == m1)) {
+				targets[e ++] = (u == m1) ? m1 - 1 : m1;
+			}
+			offsets[u + 1] = e;
+		}
+		return new Graph(offsets, java.util.Arrays.copyOf(targets, e));
+	}
+
+	// The local vertex of the position p of the path, or -1 if it is in neither range
+	private static int local(int[] range, int p) {
+		if (p >= range[0] && p < range[1]) {
+			return p - range[0];
+		}
+		if (p >= range[2] && p < range[3]) {
+			return range[1] - range[0] + p - range[2];
+		}
+		return -1;
+	}
+
+	// The position of the path of the local vertex u
+	private static int global(int[] range, int u) {
+		int m1 = range[1] - range[0];
+		return (u < m1) ? range[0] + u : range[2] + u - m1;
+	}
+
+	// The path 0, 1, ..., m - 1 of a subgraph
+	private static ArrayList<Integer> localPath(int m) {
+		ArrayList<Integer> res = new ArrayList<Integer>(m);
+		for (int i = 0; i < m; i ++) {
+			res.add(i);
+		}
+		return res;
+	}
+
+	// The rikudo of the positions of the two ranges with the constraints found so far, made uniquely solvable
+	// The constraints are only read here: they are merged by the caller once the round is over
+	private static Rikudo check(Graph g, ArrayList<Integer> path, int[] position, int[] range, int[] lambda,
+			ArrayList<ArrayList<Integer>> diamonds) {
+
+		int m = range[1] - range[0] + range[3] - range[2];
+		int[] localLambda = new int[m];
+		ArrayList<ArrayList<Integer>> localDiamonds = new ArrayList<ArrayList<Integer>>();
+		for (int i = 0; i < m; i ++) {
+			int p = global(range, i);
+			localLambda[i] = (lambda[p] == -1) ? -1 : local(range, position[lambda[p]]);
+			ArrayList<Integer> d = new ArrayList<Integer>();
+			for (int v : diamonds.get(path.get(p))) {
+				// The diamonds that leave the pair are left out, which can only add solutions
+				if (local(range, position[v]) != -1) {
+					d.add(local(range, position[v]));
+				}
+			}
+			localDiamonds.add(d);
+		}
+
+		Rikudo riku = new Rikudo(subgraph(g, path, position, range), localDiamonds, localLambda);
+		Rikudo.makeUnique(riku, localPath(m));
+		return riku;
+	}
+
+	// Copies the constraints of the rikudo of the positions of the two ranges into the constraints of the whole board
+	// A diamond on the virtual edge isn't an edge of the board, and it is useless anyway since both its cells are labelled
+	private static void merge(Rikudo local, ArrayList<Integer> path, int[] range, int[] lambda,
+			ArrayList<ArrayList<Integer>> diamonds) {
+		int m = local.graph.vertexNumber();
+		for (int i = 0; i < m; i ++) {
+			if (local.partialMap[i] != -1) {
+				lambda[global(range, i)] = path.get(global(range, local.partialMap[i]));
+			}
+			int u = path.get(global(range, i));
+			for (int v : local.diamonds.get(i)) {
+				int w = path.get(global(range, v));
+				if (Math.abs(global(range, i) - global(range, v)) == 1 && !diamonds.get(u).contains(w)) {
+					diamonds.get(u).add(w);
+				}
+			}
+		}
+	}
+
+	private static List<Rikudo> invokeAll(ExecutorService pool, List<Callable<Rikudo>> tasks) {
+		List<Rikudo> res = new ArrayList<Rikudo>();
+		try {
+			for (Future<Rikudo> f : pool.invokeAll(tasks)) {
+				res.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return res;
+	}
+
+}
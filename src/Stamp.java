@@ -0,0 +1,96 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+
+// A shape rasterized once in a small BinaryImage, to be copied (blitted) many times with BinaryImage.blit
+// The blit ORs the words of the mask into the raster, shifted to the right position, so drawing a shape that was already
+// stamped costs a few word operations per row instead of the geometry of its lines
+// Stamps are cached by shape and size: a board with thousands of cells only rasterizes one hexagon, one diamond and ten digits
+// The shapes are translation invariant (their coordinates are the position plus integer offsets, including for negative
+// positions), so a stamp is exactly the shape
+public class Stamp {
+
+	private static ConcurrentHashMap<String, Stamp> cache = new ConcurrentHashMap<String, Stamp>();
+
+	private BinaryImage mask;
+	private int ox;		// the position of the anchor of the shape (its center, or the top left corner of a digit) in the mask
+	private int oy;
+
+	Stamp(int width, int height, int ox, int oy, Consumer<BinaryImage> draw) {
+		this.mask = new BinaryImage(width, height);
+		this.ox = ox;
+		this.oy = oy;
+		draw.accept(mask);
+	}
+
+	BinaryImage mask() {
+		return mask;
+	}
+
+	int ox() {
+		return ox;
+	}
+
+	int oy() {
+		return oy;
+	}
+
+	// The hexagon of BinaryImage.drawHexagon, anchored at its center
+	public static Stamp hexagon(int r, int w) {
+		return cache.computeIfAbsent("hexagon " + r + " " + w, key -> {
+			int o = r + w + 1;
+			return new Stamp(2*o + 1, 2*o + 1, o, o, im -> im.drawHexagon(o, o, r, w));
+		});
+	}
+
+	// The diamond of BinaryImage.drawDiamond, anchored at its center
+	public static Stamp diamond(int r, int w) {
+		return cache.computeIfAbsent("diamond " + r + " " + w, key -> {
+			int o = r + w + 1;
+			return new Stamp(2*o + 1, 2*o + 1, o, o, im -> im.drawDiamond(o, o, r, w));
+		});
+	}
+
+	// The digit of BinaryImage.drawD, anchored at the top left corner of its rectangle
+	public static Stamp digit(int d, int w, int h) {
+		return cache.computeIfAbsent("digit " + d + " " + w + " " + h, key -> {
+			int o = w/8 + 1;
+			return new Stamp(w + 2*o + 1, h + 2*o + 1, o, o, im -> im.drawD(d, o, o, w, h));
+		});
+	}
+
+	// Receives the stamps of a composite shape, with their positions
+	public interface Placement {
+		void place(Stamp stamp, int x, int y);
+	}
+
+	// The digits of the integer n in a rectangle centered in (x,y) with width w and height h, as in BinaryImage.drawInt
+	public static void integer(int n, int x, int y, int w, int h, Placement placement) {
+
+		int digitNumber;
+
+		// comute the number of digits
+		if (n >= 1) {
+			digitNumber = (int) Math.log10(n) + 1;
+		}
+		else {digitNumber = 1;}
+
+		// Define the width of each digit
+		int digitWidth = w/digitNumber;
+
+		// The starting point of the first digit
+		int x0 = x - w/2;
+		int y0 = y - h/2;
+
+		for (int k = 0; k < digitNumber; k ++) {
+			int d = ((int) (n/Math.pow(10, k))) % 10;
+			placement.place(digit(d, digitWidth, h), x0 + (digitNumber - k - 1)*digitWidth, y0);
+		}
+	}
+
+	// Forgets every stamp
+	public static void clearCache() {
+		cache.clear();
+	}
+
+}
@@ -0,0 +1,560 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.sat4j.core.VecInt;
+import org.sat4j.minisat.SolverFactory;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.TimeoutException;
+
+
+// A second SAT encoding of the hamiltonian paths, with one variable per directed edge instead of one per (index, vertex):
+// y_u,v (v is the successor of u) is k + 1 where k is the rank of v among the neighbors of u in the compressed rows, and
+// start_v and end_v (v is the first or last vertex) follow them. Every vertex has exactly one successor or is the end, and
+// exactly one predecessor or is the start, so a model is a path plus cycles, in O(|E|) variables
+// The cycles are excluded lazily: each time the solver returns a model with a cycle C, a cut says that some vertex of C has
+// its successor outside of C or is the end (and symmetrically for the predecessors), and the same solver resumes the search
+// with what it learnt. The shortest cycles, which would come back in most models, are excluded from the start
+// The labels cut the path into segments, and each unlabelled vertex gets a variable for each segment that it can reach in
+// time: the successor of a vertex is in its segment or is the label that closes it, and each segment has as many vertices as
+// the gap between its labels, so a model without cycles respects the labels. The diamonds are clauses on both directions of
+// their edge
+// The solutions are enumerated like in SATSolutionIterator, with a clause forbidding each path that is found
+// Only for small or densely labelled boards: the cuts are found one model at a time, so an unlabelled board of 171 cells takes
+// about 90 s, and one of 359 cells doesn't finish in 10 min where the encoding of Graph.solverBuilder takes 42 s
+public class SuccessorEncoding implements Iterator<int[]> {
+
+	// The cycles of at most this many vertices are excluded when the encoding is built, within this many steps per edge (a
+	// hexagonal board needs about 200)
+	private static final int SHORT_CYCLES = 6;
+	private static final int CYCLE_STEPS = 256;
+
+	// The default time limit of the search of each solution, in seconds: the cuts can take very long on large boards with few
+	// labels
+	public static final int DEFAULT_TIMEOUT = 60;
+
+	private Graph g;
+	private int n;
+	private int[] offsets;
+	private int[] source;			// source[k] is the vertex u of the variable y_u,v = k + 1
+	private int[][] into;			// the variables of the edges into v
+	private int edgeNumber;
+
+	// The segment b is made of the indices between labels[b - 1] and labels[b] (from 0 for the first one, up to n - 1 for the
+	// last one), and segment[b][w] is the variable of "w is in the segment b", or 0 if w can't be there
+	private int[] partialMap;		// may be null
+	private int[] labels;			// the indices i of the labels, sorted
+	private int[] labelIndex;		// the rank in labels of the label of v, or -1
+	private int[][] segment;
+	private int variableNumber;
+
+	private ISolver solver;
+	private int cutNumber;
+	private long cycleSteps;
+	private int[] next;
+	private boolean done;
+	private int timeout;
+	private boolean timedOut;
+
+	// The reduction must be the one of this instance (see Graph.reduction and Rikudo.reduction), and the search of each
+	// solution is given up after timeout seconds (see hasNext)
+	SuccessorEncoding(Graph g, int s, int t, ArrayList<ArrayList<Integer>> diamonds, int[] partialMap, GraphReduction reduction,
+			int timeout) {
+
+		this.g = g;
+		this.timeout = timeout;
+		this.n = g.vertexNumber();
+		this.partialMap = partialMap;
+
+		offsets = new int[n + 1];
+		for (int v = 0; v < n; v ++) {
+			offsets[v + 1] = offsets[v] + g.degree(v);
+		}
+		edgeNumber = offsets[n];
+		source = new int[edgeNumber];
+		int[] in = new int[n];
+		for (int u = 0; u < n; u ++) {
+			Arrays.fill(source, offsets[u], offsets[u + 1], u);
+			for (int k = 0; k < g.degree(u); k ++) {
+				in[g.neighbor(u, k)] ++;
+			}
+		}
+		into = new int[n][];
+		for (int v = 0; v < n; v ++) {
+			into[v] = new int[in[v]];
+			in[v] = 0;
+		}
+		for (int y = 1; y <= edgeNumber; y ++) {
+			int v = target(y);
+			into[v][in[v] ++] = y;
+		}
+
+		labelIndex = new int[n];
+		Arrays.fill(labelIndex, -1);
+		int labelNumber = 0;
+		if (partialMap != null) {
+			for (int i = 0; i < n; i ++) {
+				if (partialMap[i] != -1) {
+					labelIndex[partialMap[i]] = labelNumber ++;
+				}
+			}
+		}
+		labels = new int[labelNumber];
+		for (int i = 0, k = 0; k < labelNumber; i ++) {
+			if (partialMap[i] != -1) {
+				labels[k ++] = i;
+			}
+		}
+		variableNumber = edgeNumber + 2*n;
+		segment = (labelNumber > 0) ? segments() : new int[0][];
+
+		solver = SolverFactory.newDefault();
+		try {
+			build(s, t, diamonds, reduction);
+		} catch (ContradictionException e) {
+			System.out.println("Trivially Unsatisfiable");
+			done = true;
+		}
+	}
+
+	SuccessorEncoding(Graph g, int s, int t, int timeout) {
+		this(g, s, t, null, null, g.reduction(s, t), timeout);
+	}
+
+	SuccessorEncoding(Graph g, int s, int t) {
+		this(g, s, t, DEFAULT_TIMEOUT);
+	}
+
+	// The variables
+	private int edgeVariable(int u, int v) {
+		for (int k = 0; k < g.degree(u); k ++) {
+			if (g.neighbor(u, k) == v) {
+				return offsets[u] + k + 1;
+			}
+		}
+		return 0;
+	}
+
+	private int target(int y) {
+		return g.neighbor(source[y - 1], y - 1 - offsets[source[y - 1]]);
+	}
+
+	private int start(int v) {
+		return edgeNumber + v + 1;
+	}
+
+	private int end(int v) {
+		return edgeNumber + n + v + 1;
+	}
+
+	public int variableNumber() {
+		return variableNumber;
+	}
+
+	// The number of cuts added so far
+	public int cutNumber() {
+		return cutNumber;
+	}
+
+	private void build(int s, int t, ArrayList<ArrayList<Integer>> diamonds, GraphReduction reduction) throws ContradictionException {
+
+		solver.newVar(variableNumber);
+		if (n == 0) {
+			throw new ContradictionException("No vertex");
+		}
+
+		// Exactly one start and one end
+		int[] starts = new int[n];
+		int[] ends = new int[n];
+		for (int v = 0; v < n; v ++) {
+			starts[v] = start(v);
+			ends[v] = end(v);
+		}
+		solver.addExactly(new VecInt(starts), 1);
+		solver.addExactly(new VecInt(ends), 1);
+
+		// Exactly one successor or the end, exactly one predecessor or the start
+		for (int u = 0; u < n; u ++) {
+			int[] successors = new int[g.degree(u) + 1];
+			for (int k = 0; k < g.degree(u); k ++) {
+				successors[k] = offsets[u] + k + 1;
+			}
+			successors[g.degree(u)] = end(u);
+			solver.addExactly(new VecInt(successors), 1);
+
+			int[] predecessors = Arrays.copyOf(into[u], into[u].length + 1);
+			predecessors[into[u].length] = start(u);
+			solver.addExactly(new VecInt(predecessors), 1);
+		}
+
+		if (s != -1) {
+			solver.addClause(new VecInt(new int[] {start(s)}));
+		}
+		if (t != -1) {
+			solver.addClause(new VecInt(new int[] {end(t)}));
+		}
+
+		// The diamonds: the edge is used in one direction or the other
+		if (diamonds != null) {
+			for (int u = 0; u < n; u ++) {
+				for (int v : diamonds.get(u)) {
+					addEdgeUsed(u, v);
+				}
+			}
+		}
+
+		// The short cycles are excluded from the start, the shortest ones first, from the edges used in both directions up: the
+		// boards are full of them (a hexagonal board is made of triangles), and they would else come back in most models, one cut
+		// at a time. The enumeration is exponential in the degree, so it stops after CYCLE_STEPS steps per edge, and the cuts
+		// take care of the cycles that it didn't reach
+		int[] cycle = new int[SHORT_CYCLES];
+		boolean[] onCycle = new boolean[n];
+		cycleSteps = (long) CYCLE_STEPS * edgeNumber;
+		for (int size = 2; size <= SHORT_CYCLES && cycleSteps > 0; size ++) {
+			for (int u = 0; u < n && cycleSteps > 0; u ++) {
+				cycle[0] = u;
+				onCycle[u] = true;
+				excludeCycles(cycle, 1, size, onCycle);
+				onCycle[u] = false;
+			}
+		}
+
+		if (labels.length > 0) {
+			encodeLabels();
+		}
+
+		// What the reduction finds on undirected graphs
+		if (!reduction.isFeasible()) {
+			throw new ContradictionException("No path with the forced edges");
+		}
+		ArrayList<ArrayList<Integer>> forced = reduction.forcedEdges();
+		Graph reduced = reduction.graph();
+		for (int u = 0; u < n; u ++) {
+			for (int v : forced.get(u)) {
+				if (u < v) {
+					addEdgeUsed(u, v);
+				}
+			}
+			for (int k = 0; k < g.degree(u); k ++) {
+				if (!reduced.isAdjacent(u, g.neighbor(u, k))) {
+					solver.addClause(new VecInt(new int[] {- (offsets[u] + k + 1)}));
+				}
+			}
+		}
+	}
+
+	// The segment variables of the vertices that fit in each segment: the index of w in the segment b is at least
+	// labels[b - 1] + dist(label b - 1, w) and at most labels[b] - dist(w, label b), with one breadth-first search from and to
+	// each label
+	private int[][] segments() {
+		int[][] res = new int[labels.length + 1][n];
+		for (int b = 0; b <= labels.length; b ++) {
+			int[] from = (b > 0) ? distances(partialMap[labels[b - 1]], true) : null;
+			int[] to = (b < labels.length) ? distances(partialMap[labels[b]], false) : null;
+			int first = (b > 0) ? labels[b - 1] + 1 : 0;
+			int last = (b < labels.length) ? labels[b] - 1 : n - 1;
+			for (int w = 0; w < n; w ++) {
+				if (labelIndex[w] != -1 || (from != null && from[w] == -1) || (to != null && to[w] == -1)) {
+					continue;
+				}
+				int lo = (from == null) ? first : first - 1 + from[w];
+				int hi = (to == null) ? last : last + 1 - to[w];
+				if (lo <= hi) {
+					res[b][w] = ++ variableNumber;
+				}
+			}
+		}
+		return res;
+	}
+
+	// The number of edges from v to each vertex (forward), or from each vertex to v, -1 if there is no path
+	private int[] distances(int v, boolean forward) {
+		int[] dist = new int[n];
+		Arrays.fill(dist, -1);
+		int[] queue = new int[n];
+		int head = 0;
+		int tail = 0;
+		dist[v] = 0;
+		queue[tail ++] = v;
+		while (head < tail) {
+			int u = queue[head ++];
+			int degree = forward ? g.degree(u) : into[u].length;
+			for (int k = 0; k < degree; k ++) {
+				int w = forward ? g.neighbor(u, k) : source[into[u][k] - 1];
+				if (dist[w] == -1) {
+					dist[w] = dist[u] + 1;
+					queue[tail ++] = w;
+				}
+			}
+		}
+		return dist;
+	}
+
+	// Adds a clause against each directed cycle of size vertices that extends cycle[0 .. length - 1], cycle[0] being its
+	// smallest vertex, as long as there are steps left
+	private void excludeCycles(int[] cycle, int length, int size, boolean[] onCycle) throws ContradictionException {
+		if (-- cycleSteps <= 0) {
+			return;
+		}
+		int u = cycle[length - 1];
+		for (int k = 0; k < g.degree(u); k ++) {
+			int v = g.neighbor(u, k);
+			if (v == cycle[0] && length == size) {
+				int[] clause = new int[length];
+				for (int i = 0; i < length; i ++) {
+					clause[i] = - edgeVariable(cycle[i], cycle[(i + 1) % length]);
+				}
+				solver.addClause(new VecInt(clause));
+			} else if (v > cycle[0] && !onCycle[v] && length < size) {
+				cycle[length] = v;
+				onCycle[v] = true;
+				excludeCycles(cycle, length + 1, size, onCycle);
+				onCycle[v] = false;
+			}
+		}
+	}
+
+	// The labels as constraints on the segments
+	private void encodeLabels() throws ContradictionException {
+
+		// Each unlabelled vertex is in exactly one segment, and each segment has the size of the gap between its labels
+		for (int w = 0; w < n; w ++) {
+			if (labelIndex[w] == -1) {
+				VecInt in = new VecInt();
+				for (int b = 0; b <= labels.length; b ++) {
+					if (segment[b][w] != 0) {
+						in.push(segment[b][w]);
+					}
+				}
+				if (in.isEmpty()) {
+					throw new ContradictionException("A vertex too far from the labels");
+				}
+				solver.addExactly(in, 1);
+			}
+		}
+		for (int b = 0; b <= labels.length; b ++) {
+			int size = ((b < labels.length) ? labels[b] : n) - ((b > 0) ? labels[b - 1] + 1 : 0);
+			VecInt members = new VecInt();
+			for (int w = 0; w < n; w ++) {
+				if (segment[b][w] != 0) {
+					members.push(segment[b][w]);
+				}
+			}
+			if (members.size() < size) {
+				throw new ContradictionException("A segment that can't be filled");
+			}
+			if (!members.isEmpty()) {
+				solver.addExactly(members, size);
+			}
+		}
+
+		// The path starts in the first segment and ends in the last one, or at a label at index 0 or n - 1
+		int last = labels.length;
+		for (int w = 0; w < n; w ++) {
+			if (labelIndex[w] == -1) {
+				addImplication(start(w), segment[0][w]);
+				addImplication(end(w), segment[last][w]);
+			} else {
+				int i = labels[labelIndex[w]];
+				solver.addClause(new VecInt(new int[] {(i == 0) ? start(w) : - start(w)}));
+				solver.addClause(new VecInt(new int[] {(i == n - 1) ? end(w) : - end(w)}));
+			}
+		}
+
+		// The successor of a vertex of the segment b is in the segment b or is the label b, and the successor of the label b is
+		// in the segment b + 1, or is the label b + 1 when they are at consecutive indices
+		for (int y = 1; y <= edgeNumber; y ++) {
+			int a = labelIndex[source[y - 1]];
+			int c = labelIndex[target(y)];
+			if (a == -1 && c == -1) {
+				for (int b = 0; b <= last; b ++) {
+					int z = segment[b][source[y - 1]];
+					if (z != 0) {
+						solver.addClause(new VecInt((segment[b][target(y)] == 0) ? new int[] {- y, - z}
+								: new int[] {- y, - z, segment[b][target(y)]}));
+					}
+				}
+			} else if (a == -1) {
+				addImplication(y, segment[c][source[y - 1]]);
+			} else if (c == -1) {
+				addImplication(y, segment[a + 1][target(y)]);
+			} else if (c != a + 1 || labels[c] != labels[a] + 1) {
+				solver.addClause(new VecInt(new int[] {- y}));
+			}
+		}
+	}
+
+	// x implies z, where z = 0 is false
+	private void addImplication(int x, int z) throws ContradictionException {
+		solver.addClause(new VecInt((z == 0) ? new int[] {- x} : new int[] {- x, z}));
+	}
+
+	private void addEdgeUsed(int u, int v) throws ContradictionException {
+		int a = edgeVariable(u, v);
+		int b = edgeVariable(v, u);
+		if (a == 0 && b == 0) {
+			throw new ContradictionException("A diamond on a non edge");
+		}
+		solver.addClause(new VecInt((a == 0) ? new int[] {b} : (b == 0) ? new int[] {a} : new int[] {a, b}));
+	}
+
+	// Solves until the model has no cycle, adding the cuts it breaks; returns null if there is no path, and gives up after
+	// timeout seconds
+	private int[] solve() throws TimeoutException {
+
+		int[] successor = new int[n];
+		boolean[] onPath = new boolean[n];
+
+		long deadline = System.currentTimeMillis() + 1000L*timeout;
+		while (true) {
+
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0) {
+				throw new TimeoutException("No path after " + timeout + " s");
+			}
+			solver.setTimeoutMs(left);
+			if (!solver.isSatisfiable()) {
+				break;
+			}
+
+			Arrays.fill(successor, -1);
+			int first = -1;
+			for (int lit : solver.model()) {
+				if (lit > 0 && lit <= edgeNumber) {
+					successor[source[lit - 1]] = target(lit);
+				} else if (lit > edgeNumber && lit <= edgeNumber + n) {
+					first = lit - edgeNumber - 1;
+				}
+			}
+
+			int[] path = new int[n];
+			Arrays.fill(onPath, false);
+			int length = 0;
+			for (int v = first; v != -1; v = successor[v]) {
+				onPath[v] = true;
+				path[length ++] = v;
+			}
+
+			try {
+				if (length < n) {
+					cutCycles(successor, onPath);
+				} else {
+					block(path);
+					return path;
+				}
+			} catch (ContradictionException e) {
+				// The cuts leave no solution
+				return null;
+			}
+		}
+		return null;
+	}
+
+	// Adds a cut for each cycle of the model: the vertices that aren't on the path all have a successor and a predecessor,
+	// so they form cycles
+	private void cutCycles(int[] successor, boolean[] onPath) throws ContradictionException {
+
+		int[] cycleOf = new int[n];
+		int cycles = 0;
+		for (int v = 0; v < n; v ++) {
+			if (onPath[v] || cycleOf[v] != 0) {
+				continue;
+			}
+			cycles ++;
+			ArrayList<Integer> cycle = new ArrayList<Integer>();
+			for (int u = v; cycleOf[u] == 0; u = successor[u]) {
+				cycleOf[u] = cycles;
+				cycle.add(u);
+			}
+
+			VecInt leave = new VecInt();
+			VecInt enter = new VecInt();
+			for (int u : cycle) {
+				leave.push(end(u));
+				enter.push(start(u));
+				for (int k = 0; k < g.degree(u); k ++) {
+					if (cycleOf[g.neighbor(u, k)] != cycles) {
+						leave.push(offsets[u] + k + 1);
+					}
+				}
+				for (int y : into[u]) {
+					if (cycleOf[source[y - 1]] != cycles) {
+						enter.push(y);
+					}
+				}
+			}
+			addCut(leave);
+			addCut(enter);
+		}
+	}
+
+	private void addCut(VecInt clause) throws ContradictionException {
+		solver.addClause(clause);
+		cutNumber ++;
+	}
+
+	// Forbids the path, so that the next solution is a different one
+	private void block(int[] path) {
+		// The edges determine the path, except for a single vertex
+		int[] block = new int[Math.max(n - 1, 1)];
+		if (n == 1) {
+			block[0] = - start(path[0]);
+		}
+		for (int i = 0; i + 1 < n; i ++) {
+			block[i] = - edgeVariable(path[i], path[i + 1]);
+		}
+		try {
+			solver.addClause(new VecInt(block));
+		} catch (ContradictionException e) {
+			// The path was the last one
+			done = true;
+		}
+	}
+
+	// A timeout throws an IllegalStateException instead of ending the enumeration, which would look like there are no more
+	// solutions (a count of 1 would look like a unique solution)
+	@Override
+	public boolean hasNext() {
+		if (timedOut) {
+			throw new IllegalStateException("Timeout after " + timeout + " s");
+		}
+		if (next == null && !done) {
+			try {
+				next = solve();
+				if (next == null) {
+					done = true;
+				}
+			} catch (TimeoutException e) {
+				timedOut = true;
+				throw new IllegalStateException("Timeout after " + timeout + " s", e);
+			}
+		}
+		return next != null;
+	}
+
+	// Whether the search of a solution was given up
+	public boolean timedOut() {
+		return timedOut;
+	}
+
+	@Override
+	public int[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		int[] path = next;
+		next = null;
+		return path;
+	}
+
+	public Stream<int[]> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+}
@@ -0,0 +1,184 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+// Checks the engines against the enumeration of all the hamiltonian paths, on small random graphs:
+// - Graph: solutions (backtracking), solutionsSAT, solutionsSuccessor, and the filter of BlockCutTree.admitsPath
+// - Rikudo, with labels and diamonds taken from one of the paths: solutions (SAT), solutionsSuccessor, solutionsBacktracking
+//   and solveBacktracking
+// The engines print a lot, so their output is dropped and only the mismatches are printed
+// Usage: java TestEngines [number of graphs] [seed]
+public class TestEngines {
+
+	private static PrintStream out = System.out;
+	private static int mismatches = 0;
+
+	public static void main(String[] args) {
+
+		int graphNumber = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+		Random r = new Random((args.length > 1) ? Long.parseLong(args[1]) : 0);
+		int instances = 0;
+
+		for (int k = 0; k < graphNumber; k ++) {
+
+			int n = 2 + r.nextInt(6);
+			Graph g = randomGraph(n, r);
+			ArrayList<int[]> paths = allPaths(g);
+
+			System.setOut(new PrintStream(new ByteArrayOutputStream()));
+			try {
+
+				for (int s = 0; s < n; s ++) {
+					for (int t = 0; t < n; t ++) {
+						instances ++;
+						HashSet<String> expected = new HashSet<String>();
+						for (int[] p : paths) {
+							if (p[0] == s && p[n - 1] == t) {
+								expected.add(Arrays.toString(p));
+							}
+						}
+						String name = "graph " + k + " from " + s + " to " + t;
+						compare(name + ", solutions", expected, g.solutions(s, t));
+						compare(name + ", solutionsSAT", expected, g.solutionsSAT(s, t));
+						compare(name + ", solutionsSuccessor", expected, g.solutionsSuccessor(s, t));
+						if (!expected.isEmpty() && !g.blockCutTree().admitsPath(s, t)) {
+							mismatch(name + ", admitsPath rejects an instance with a path");
+						}
+					}
+				}
+
+				// A rikudo whose solutions include the path p, from its labels at 0 and n - 1
+				if (!paths.isEmpty()) {
+					instances ++;
+					int[] p = paths.get(r.nextInt(paths.size()));
+					Rikudo riku = randomRikudo(g, p, r);
+					HashSet<String> expected = new HashSet<String>();
+					for (int[] q : paths) {
+						if (respects(riku, q)) {
+							expected.add(Arrays.toString(q));
+						}
+					}
+					String name = "rikudo of graph " + k + " " + Arrays.toString(riku.partialMap) + " " + riku.diamonds;
+					compare(name + ", solutions", expected, riku.solutions());
+					compare(name + ", solutionsSuccessor", expected, riku.solutionsSuccessor());
+					compare(name + ", solutionsBacktracking", expected, riku.solutionsBacktracking(p[0], p[n - 1]));
+					if (riku.solveBacktracking(p[0], p[n - 1]).isEmpty()) {
+						mismatch(name + ", solveBacktracking finds no solution");
+					}
+				}
+
+			} finally {
+				System.setOut(out);
+			}
+		}
+
+		System.out.println(instances + " instances on " + graphNumber + " graphs, " + mismatches + " mismatches");
+		if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+
+	// A random undirected graph with n vertices and between n and 3n edge draws
+	private static Graph randomGraph(int n, Random r) {
+		ArrayList<ArrayList<Integer>> adjacency = new ArrayList<ArrayList<Integer>>();
+		for (int v = 0; v < n; v ++) {
+			adjacency.add(new ArrayList<Integer>());
+		}
+		int draws = n + r.nextInt(2*n);
+		for (int e = 0; e < draws; e ++) {
+			int u = r.nextInt(n);
+			int v = r.nextInt(n);
+			if (u != v && !adjacency.get(u).contains(v)) {
+				adjacency.get(u).add(v);
+				adjacency.get(v).add(u);
+			}
+		}
+		return new Graph(adjacency);
+	}
+
+	// All the hamiltonian paths of g, by brute force
+	private static ArrayList<int[]> allPaths(Graph g) {
+		int n = g.vertexNumber();
+		ArrayList<int[]> res = new ArrayList<int[]>();
+		for (int s = 0; s < n; s ++) {
+			int[] path = new int[n];
+			boolean[] used = new boolean[n];
+			path[0] = s;
+			used[s] = true;
+			extend(g, path, 1, used, res);
+		}
+		return res;
+	}
+
+	private static void extend(Graph g, int[] path, int length, boolean[] used, ArrayList<int[]> res) {
+		if (length == path.length) {
+			res.add(path.clone());
+			return;
+		}
+		for (int k = 0; k < g.degree(path[length - 1]); k ++) {
+			int w = g.neighbor(path[length - 1], k);
+			if (!used[w]) {
+				used[w] = true;
+				path[length] = w;
+				extend(g, path, length + 1, used, res);
+				used[w] = false;
+			}
+		}
+	}
+
+	// The labels at both ends and some random labels and diamonds of the path p
+	private static Rikudo randomRikudo(Graph g, int[] p, Random r) {
+		int n = p.length;
+		int[] partialMap = new int[n];
+		Arrays.fill(partialMap, -1);
+		ArrayList<ArrayList<Integer>> diamonds = new ArrayList<ArrayList<Integer>>();
+		for (int v = 0; v < n; v ++) {
+			diamonds.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < n; i ++) {
+			if (i == 0 || i == n - 1 || r.nextInt(4) == 0) {
+				partialMap[i] = p[i];
+			}
+			if (i + 1 < n && r.nextInt(4) == 0) {
+				diamonds.get(p[i]).add(p[i + 1]);
+				diamonds.get(p[i + 1]).add(p[i]);
+			}
+		}
+		return new Rikudo(g, diamonds, partialMap);
+	}
+
+	// Whether the path q respects the labels and the diamonds of riku
+	private static boolean respects(Rikudo riku, int[] q) {
+		int n = q.length;
+		for (int i = 0; i < n; i ++) {
+			if (riku.partialMap[i] != -1 && riku.partialMap[i] != q[i]) {
+				return false;
+			}
+			for (int v : riku.diamonds.get(q[i])) {
+				if (!((i > 0 && q[i - 1] == v) || (i + 1 < n && q[i + 1] == v))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static void compare(String name, HashSet<String> expected, Stream<int[]> solutions) {
+		HashSet<String> found = solutions.map(Arrays::toString).collect(Collectors.toCollection(HashSet::new));
+		if (!found.equals(expected)) {
+			mismatch(name + ": " + found.size() + " solutions instead of " + expected.size());
+		}
+	}
+
+	private static void mismatch(String message) {
+		mismatches ++;
+		out.println("Mismatch: " + message);
+	}
+
+}
@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+// Renders a list of stamps (see Stamp) on a BinaryImage with several threads
+// The image is split into bands of BAND_HEIGHT rows, and each stamp is assigned to the bands its bounding box overlaps
+// Since the rows of the raster don't share words, the bands are rasterized concurrently on a fork/join pool without any lock,
+// each one only blitting the rows of its stamps that are inside it
+public class TileRenderer {
+
+	private static final int BAND_HEIGHT = 128;
+
+	// The bands of no more than SEQUENTIAL_BANDS are rendered by a single task
+	private static final int SEQUENTIAL_BANDS = 2;
+
+	private ArrayList<Stamp> stamps = new ArrayList<Stamp>();
+	private ArrayList<int[]> positions = new ArrayList<int[]>();
+
+	public void add(Stamp stamp, int x, int y) {
+		stamps.add(stamp);
+		positions.add(new int[] {x, y});
+	}
+
+	public void addHexagon(int x, int y, int r, int w) {
+		add(Stamp.hexagon(r, w), x, y);
+	}
+
+	public void addDiamond(int x, int y, int r, int w) {
+		add(Stamp.diamond(r, w), x, y);
+	}
+
+	public void addInt(int n, int x, int y, int w, int h) {
+		Stamp.integer(n, x, y, w, h, this::add);
+	}
+
+	public int size() {
+		return stamps.size();
+	}
+
+	// Renders the stamps on im with the common fork/join pool
+	public void render(BinaryImage im) {
+		render(im, ForkJoinPool.commonPool());
+	}
+
+	public void render(BinaryImage im, ForkJoinPool pool) {
+
+		int bandNumber = (im.getHeight() + BAND_HEIGHT - 1) / BAND_HEIGHT;
+		if (bandNumber == 0) {
+			return;
+		}
+
+		// The stamps of each band, by their index
+		int[] counts = new int[bandNumber];
+		for (int k = 0; k < stamps.size(); k ++) {
+			for (int b = firstBand(k, bandNumber); b <= lastBand(k, bandNumber); b ++) {
+				counts[b] ++;
+			}
+		}
+		int[][] bands = new int[bandNumber][];
+		for (int b = 0; b < bandNumber; b ++) {
+			bands[b] = new int[counts[b]];
+			counts[b] = 0;
+		}
+		for (int k = 0; k < stamps.size(); k ++) {
+			for (int b = firstBand(k, bandNumber); b <= lastBand(k, bandNumber); b ++) {
+				bands[b][counts[b] ++] = k;
+			}
+		}
+
+		pool.invoke(new BandTask(im, bands, 0, bandNumber));
+		im.changed(0, 0, im.getWidth(), im.getHeight());
+	}
+
+	private int firstBand(int k, int bandNumber) {
+		int top = positions.get(k)[1] - stamps.get(k).oy();
+		return Math.min(Math.max(top, 0) / BAND_HEIGHT, bandNumber);
+	}
+
+	// The last band overlapped by the stamp k (smaller than firstBand if there is none)
+	private int lastBand(int k, int bandNumber) {
+		int bottom = positions.get(k)[1] - stamps.get(k).oy() + stamps.get(k).mask().getHeight() - 1;
+		if (bottom < 0) {
+			return -1;
+		}
+		return Math.min(bottom / BAND_HEIGHT, bandNumber - 1);
+	}
+
+	// Renders the bands [from, to), by splitting the range in halves
+	private class BandTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private BinaryImage im;
+		private int[][] bands;
+		private int from;
+		private int to;
+
+		BandTask(BinaryImage im, int[][] bands, int from, int to) {
+			this.im = im;
+			this.bands = bands;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from <= SEQUENTIAL_BANDS) {
+				for (int b = from; b < to; b ++) {
+					int yMin = b * BAND_HEIGHT;
+					int yMax = Math.min(yMin + BAND_HEIGHT, im.getHeight());
+					for (int k : bands[b]) {
+						int[] p = positions.get(k);
+						im.blit(stamps.get(k), p[0], p[1], yMin, yMax);
+					}
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new BandTask(im, bands, from, middle), new BandTask(im, bands, middle, to));
+		}
+	}
+
+}